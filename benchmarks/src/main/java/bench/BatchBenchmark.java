@@ -0,0 +1,49 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of batch playouts on SIMD lanes, in playouts per second, to
+ * compare with {@link SearchBenchmark#playout()}.
+ *
+ * @author emsquellen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class BatchBenchmark {
+    private static final int GAMES = 256;
+
+    private Object board;
+    private int player;
+    private Object batch;
+
+    @Setup
+    public void setUp() {
+        Object[] position = Engine.position(20);
+        board = position[0];
+        player = (Integer) position[1];
+        batch = Engine.newBatchRollout();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GAMES)
+    public int[] playBatch() {
+        return Engine.playBatch(batch, board, player, GAMES);
+    }
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the board operations the search spends most of its time
+ * in: move generation, making a move and the game over check.
+ *
+ * @author emsquellen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+    /**
+     * The number of random moves played from the start position.
+     */
+    @Param({ "0", "20" })
+    public int plies;
+
+    private Object board;
+    private int player;
+    private int[] move;
+
+    @Setup
+    public void setUp() {
+        Object[] position = Engine.position(plies);
+        board = position[0];
+        player = (Integer) position[1];
+        List<int[]> moves = Engine.getAllMoves(board, player);
+        move = moves.get(0);
+    }
+
+    @Benchmark
+    public List<int[]> getAllMoves() {
+        return Engine.getAllMoves(board, player);
+    }
+
+    @Benchmark
+    public Object makeMove() {
+        Object copy = Engine.copyBoard(board);
+        Engine.makeMove(copy, move[0], move[1], player);
+        return copy;
+    }
+
+    @Benchmark
+    public boolean gameOver() {
+        return Engine.gameOver(board);
+    }
+}
@@ -0,0 +1,233 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Access to the engine classes in the default package, which code in a
+ * named package cannot refer to and JMH will not benchmark in place. The
+ * method handles are constants, so the JIT inlines them and a call costs
+ * the same as a direct one.
+ *
+ * @author emsquellen
+ */
+final class Engine {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> BOARD = load("Board");
+    private static final Class<?> NODE = load("Node");
+    private static final Class<?> TREE = load("MCTSTree");
+    private static final Class<?> BUDGET = load("SearchBudget");
+
+    private static final MethodHandle NEW_BOARD = constructor(BOARD);
+    private static final MethodHandle COPY_BOARD = constructor(BOARD, BOARD);
+    private static final MethodHandle GET_ALL_MOVES = virtual(BOARD, "getAllMoves", List.class, int.class);
+    private static final MethodHandle MAKE_MOVE = virtual(BOARD, "makeMove", boolean.class,
+            int.class, int.class, int.class);
+    private static final MethodHandle GAME_OVER = virtual(BOARD, "gameOver", boolean.class);
+    private static final MethodHandle NEW_NODE = constructor(NODE, NODE, BOARD, int.class, int.class, int.class);
+    private static final MethodHandle EXPAND = virtual(NODE, "expand", NODE);
+    private static final MethodHandle PLAYOUT = virtual(NODE, "playout", load("Outcome"));
+    private static final MethodHandle NEW_TREE = constructor(TREE);
+    private static final MethodHandle OF_ITERATIONS = staticMethod(BUDGET, "ofIterations", BUDGET, int.class);
+    private static final MethodHandle SEARCH = virtual(TREE, "search", load("SearchResult"), BUDGET);
+
+    private Engine() {
+    }
+
+    static Object newBoard() {
+        try {
+            return (Object) NEW_BOARD.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object copyBoard(Object board) {
+        try {
+            return (Object) COPY_BOARD.invokeExact(board);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<int[]> getAllMoves(Object board, int player) {
+        try {
+            return (List<int[]>) GET_ALL_MOVES.invokeExact(board, player);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean makeMove(Object board, int x, int y, int player) {
+        try {
+            return (boolean) MAKE_MOVE.invokeExact(board, x, y, player);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean gameOver(Object board) {
+        try {
+            return (boolean) GAME_OVER.invokeExact(board);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newNode(Object board, int player) {
+        try {
+            return (Object) NEW_NODE.invokeExact((Object) null, board, player, -1, -1);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object expand(Object node) {
+        try {
+            return (Object) EXPAND.invokeExact(node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object playout(Object node) {
+        try {
+            return (Object) PLAYOUT.invokeExact(node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newTree() {
+        try {
+            return (Object) NEW_TREE.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object search(Object tree, int iterations) {
+        try {
+            return (Object) SEARCH.invokeExact(tree, (Object) OF_ITERATIONS.invokeExact(iterations));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newBatchRollout() {
+        try {
+            return (Object) Batch.NEW_BATCH.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int[] playBatch(Object batch, Object board, int player, int games) {
+        try {
+            return (int[]) Batch.PLAY_BATCH.invokeExact(batch, board, player, games);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Plays random moves from the starting position with a fixed seed, so
+     * every run benchmarks the same midgame position.
+     *
+     * @param plies the number of moves to play
+     * @return Object[] the board and the player to move
+     */
+    static Object[] position(int plies) {
+        Object board = newBoard();
+        Random random = new Random(42);
+        int player = 1;
+        for (int ply = 0; ply < plies && !gameOver(board); ply++) {
+            List<int[]> moves = getAllMoves(board, player);
+            if (!moves.isEmpty()) {
+                int[] move = moves.get(random.nextInt(moves.size()));
+                makeMove(board, move[0], move[1], player);
+            }
+            player = player == 1 ? 2 : 1;
+        }
+        return new Object[] { board, player };
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Engine class not on the class path: " + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(type, MethodType.methodType(void.class, parameters));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No such constructor on " + type.getName(), e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> type, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(type, name, MethodType.methodType(returnType, parameters));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No such method " + type.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> type, String name, Class<?> returnType,
+            Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findStatic(type, name, MethodType.methodType(returnType, parameters));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No such method " + type.getName() + "." + name, e);
+        }
+    }
+
+    /**
+     * Replaces every engine type in a method type by Object, keeping
+     * primitives and JDK types as they are.
+     */
+    private static MethodType erase(MethodType type) {
+        MethodType erased = type;
+        for (int i = 0; i < type.parameterCount(); i++) {
+            erased = erased.changeParameterType(i, eraseType(type.parameterType(i)));
+        }
+        return erased.changeReturnType(eraseType(type.returnType()));
+    }
+
+    private static Class<?> eraseType(Class<?> type) {
+        return type.isPrimitive() || type.getPackageName().startsWith("java.") ? type : Object.class;
+    }
+
+    /**
+     * Handles of the batch rollouts, kept apart because resolving them
+     * needs the jdk.incubator.vector module, which only the batch
+     * benchmarks run with.
+     */
+    private static final class Batch {
+        private static final Class<?> BATCH = load("BatchRollout");
+        private static final MethodHandle NEW_BATCH = constructor(BATCH);
+        private static final MethodHandle PLAY_BATCH = virtual(BATCH, "play", int[].class, BOARD, int.class,
+                int.class);
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
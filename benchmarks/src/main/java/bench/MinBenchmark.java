@@ -0,0 +1,60 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import min.Board;
+import min.Node;
+import min.Outcome;
+
+/**
+ * Throughput of the compact engine in the {@code min} package. Its
+ * playouts add every move to the tree, so each playout runs on a fresh
+ * node.
+ *
+ * @author emsquellen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MinBenchmark {
+    private final Board board = new Board();
+
+    @Benchmark
+    public List<int[]> getAllMoves() {
+        return board.getAllMoves(1);
+    }
+
+    @Benchmark
+    public Board makeMove() {
+        Board copy = new Board(board);
+        copy.makeMove(2, 3, 1);
+        return copy;
+    }
+
+    @Benchmark
+    public boolean gameOver() {
+        return board.gameOver();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Outcome expandAndPlayout() {
+        Node node = new Node(null, new Board(board), 1, -1, -1);
+        node.expand();
+        return node.playout();
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the search phases: a single playout, expanding every
+ * child of a node, and a full search from the start position.
+ *
+ * @author emsquellen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+    private Object board;
+    private int player;
+    private Object expanded;
+
+    @Setup
+    public void setUp() {
+        Object[] position = Engine.position(20);
+        board = position[0];
+        player = (Integer) position[1];
+        expanded = Engine.newNode(board, player);
+        while (Engine.expand(expanded) != null) {
+            // Expand every move so the playouts start from random children
+        }
+    }
+
+    @Benchmark
+    public Object playout() {
+        return Engine.playout(expanded);
+    }
+
+    @Benchmark
+    public Object expand() {
+        Object node = Engine.newNode(board, player);
+        while (Engine.expand(node) != null) {
+            // Expand one child per call until every move has one
+        }
+        return node;
+    }
+
+    @Benchmark
+    public Object search(Budget budget) {
+        return Engine.search(Engine.newTree(), budget.iterations);
+    }
+
+    /**
+     * The budget of a full search, kept apart so only the search benchmark
+     * runs once per value.
+     */
+    @State(Scope.Benchmark)
+    public static class Budget {
+        /**
+         * The number of iterations of a full search.
+         */
+        @Param({ "40", "1000" })
+        public int iterations;
+    }
+}
@@ -0,0 +1,200 @@
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Plays many random games in lockstep, one game per lane of a SIMD
+ * vector. Move generation and flipping run on whole vectors of bitboards
+ * with the Vector API; only picking a random move is done per game.
+ *
+ * All games of a batch share the side to move, since a pass also hands
+ * the move over, so a lane only needs the discs of the side to move and
+ * of its opponent. Finished games keep passing until the whole batch is
+ * done.
+ *
+ * Needs the {@code jdk.incubator.vector} module, added with
+ * {@code --add-modules jdk.incubator.vector}; without it the class fails to
+ * load, so check for the module before touching it, as
+ * {@link MCTSTree#setBatchSize(int)} does.
+ *
+ * @author emsquellen
+ */
+public class BatchRollout {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final ThreadLocal<BatchRollout> CURRENT = ThreadLocal.withInitial(BatchRollout::new);
+
+    private final RandomGenerator random;
+    // Per game: discs of the side to move and of its opponent, the legal
+    // moves, the move played and the number of passes in a row
+    private long[] own;
+    private long[] opp;
+    private long[] moves;
+    private long[] chosen;
+    private int[] passes;
+
+    /**
+     * Constructor for a batch rollout engine.
+     */
+    public BatchRollout() {
+        this(new SplittableRandom());
+    }
+
+    /**
+     * Constructor for a batch rollout engine.
+     *
+     * @param random the random source for move choices
+     */
+    public BatchRollout(RandomGenerator random) {
+        this.random = random;
+        resize(SPECIES.length());
+    }
+
+    /**
+     * Gets the batch rollout engine of the current thread.
+     *
+     * @return BatchRollout
+     */
+    public static BatchRollout current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Getter for the number of games that fit in one vector.
+     *
+     * @return int
+     */
+    public static int getLanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Plays random games from a position until they are all over.
+     *
+     * @param board  the start position, left untouched
+     * @param player the player to move
+     * @param games  the number of games to play
+     * @return int[] the number of draws, wins of player 1 and wins of
+     *         player 2, indexed by winner
+     */
+    public int[] play(Board board, int player, int games) {
+        int lanes = SPECIES.length();
+        int size = (games + lanes - 1) / lanes * lanes;
+        if (own.length < size) {
+            resize(size);
+        }
+        long start = board.getBits(player);
+        long startOpp = board.getBits(player == 1 ? 2 : 1);
+        for (int i = 0; i < size; i++) {
+            own[i] = start;
+            opp[i] = startOpp;
+            // Padding lanes start out finished
+            passes[i] = i < games ? 0 : 2;
+        }
+
+        int toMove = player;
+        int active = games;
+        while (active > 0) {
+            for (int i = 0; i < size; i += lanes) {
+                moves(LongVector.fromArray(SPECIES, own, i), LongVector.fromArray(SPECIES, opp, i))
+                        .intoArray(moves, i);
+            }
+            for (int i = 0; i < size; i++) {
+                if (passes[i] >= 2) {
+                    chosen[i] = 0;
+                } else if (moves[i] == 0) {
+                    chosen[i] = 0;
+                    // The game ends when both players have to pass in a row
+                    if (++passes[i] == 2) {
+                        active--;
+                    }
+                } else {
+                    passes[i] = 0;
+                    chosen[i] = randomBit(moves[i]);
+                }
+            }
+            for (int i = 0; i < size; i += lanes) {
+                LongVector o = LongVector.fromArray(SPECIES, own, i);
+                LongVector p = LongVector.fromArray(SPECIES, opp, i);
+                LongVector c = LongVector.fromArray(SPECIES, chosen, i);
+                LongVector f = flips(c, o, p);
+                // Hand the move over: the opponent becomes the side to move
+                p.and(f.not()).intoArray(own, i);
+                o.or(c).or(f).intoArray(opp, i);
+            }
+            toMove = toMove == 1 ? 2 : 1;
+        }
+
+        int[] wins = new int[3];
+        for (int i = 0; i < games; i++) {
+            int score = Long.bitCount(own[i]) - Long.bitCount(opp[i]);
+            wins[score > 0 ? toMove : score < 0 ? (toMove == 1 ? 2 : 1) : 0]++;
+        }
+        return wins;
+    }
+
+    private void resize(int size) {
+        own = new long[size];
+        opp = new long[size];
+        moves = new long[size];
+        chosen = new long[size];
+        passes = new int[size];
+    }
+
+    /**
+     * Picks a uniformly random set bit of a move mask.
+     */
+    private long randomBit(long moves) {
+        for (int n = random.nextInt(Long.bitCount(moves)); n > 0; n--) {
+            moves &= moves - 1;
+        }
+        return moves & -moves;
+    }
+
+    /**
+     * Lane-wise {@link Board#moves(long, long)}.
+     */
+    static LongVector moves(LongVector own, LongVector opp) {
+        LongVector moves = LongVector.zero(SPECIES);
+        for (int d = 0; d < 4; d++) {
+            int s = Board.SHIFTS[d];
+            LongVector lo = opp.and(Board.LEFT_MASKS[d]);
+            LongVector ro = opp.and(Board.RIGHT_MASKS[d]);
+            LongVector l = own.lanewise(VectorOperators.LSHL, s).and(lo);
+            LongVector r = own.lanewise(VectorOperators.LSHR, s).and(ro);
+            for (int k = 0; k < 5; k++) {
+                l = l.or(l.lanewise(VectorOperators.LSHL, s).and(lo));
+                r = r.or(r.lanewise(VectorOperators.LSHR, s).and(ro));
+            }
+            moves = moves.or(l.lanewise(VectorOperators.LSHL, s).and(Board.LEFT_MASKS[d]))
+                    .or(r.lanewise(VectorOperators.LSHR, s).and(Board.RIGHT_MASKS[d]));
+        }
+        return moves.and(own.or(opp).not());
+    }
+
+    /**
+     * Lane-wise {@link Board#flips(long, long, long)}; a lane without a
+     * move flips nothing.
+     */
+    static LongVector flips(LongVector move, LongVector own, LongVector opp) {
+        LongVector flips = LongVector.zero(SPECIES);
+        for (int d = 0; d < 4; d++) {
+            int s = Board.SHIFTS[d];
+            LongVector lo = opp.and(Board.LEFT_MASKS[d]);
+            LongVector ro = opp.and(Board.RIGHT_MASKS[d]);
+            LongVector l = move.lanewise(VectorOperators.LSHL, s).and(lo);
+            LongVector r = move.lanewise(VectorOperators.LSHR, s).and(ro);
+            for (int k = 0; k < 5; k++) {
+                l = l.or(l.lanewise(VectorOperators.LSHL, s).and(lo));
+                r = r.or(r.lanewise(VectorOperators.LSHR, s).and(ro));
+            }
+            // A run only flips when it is capped by one of our own discs
+            LongVector lCap = l.lanewise(VectorOperators.LSHL, s).and(Board.LEFT_MASKS[d]).and(own);
+            LongVector rCap = r.lanewise(VectorOperators.LSHR, s).and(Board.RIGHT_MASKS[d]).and(own);
+            flips = flips.or(l.blend(0L, lCap.eq(0L))).or(r.blend(0L, rCap.eq(0L)));
+        }
+        return flips;
+    }
+}
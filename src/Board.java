@@ -1,159 +1,307 @@
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
 
+/**
+ * Othello board backed by two bitboards, one {@code long} per player.
+ * Square (x, y) maps to bit {@code x * 8 + y}. A 64-bit Zobrist key of the
+ * discs is kept up to date by every move.
+ *
+ * @author emsquellen
+ */
 public class Board {
-    private int[][] gameBoard;
+    private static final long NOT_COL_0 = 0xFEFEFEFEFEFEFEFEL;
+    private static final long NOT_COL_7 = 0x7F7F7F7F7F7F7F7FL;
+
+    // Shift amounts and wrap masks for the four left-shift directions
+    // (E, SE, S, SW); the right-shift directions (W, NW, N, NE) use the
+    // same amounts with the mirrored masks. Shared with BatchRollout.
+    static final int[] SHIFTS = { 1, 9, 8, 7 };
+    static final long[] LEFT_MASKS = { NOT_COL_0, NOT_COL_0, -1L, NOT_COL_7 };
+    static final long[] RIGHT_MASKS = { NOT_COL_7, NOT_COL_7, -1L, NOT_COL_0 };
+
+    // Zobrist keys per player and square, fixed so keys are stable across runs
+    private static final long[][] ZOBRIST = new long[3][64];
+
+    static {
+        Random random = new Random(0x5EED_0F_0DDL);
+        for (int player = 1; player <= 2; player++) {
+            for (int square = 0; square < 64; square++) {
+                ZOBRIST[player][square] = random.nextLong();
+            }
+        }
+    }
+
+    private long black;
+    private long white;
+    private long zobristKey;
 
     public Board(int[][] board) {
-        this.gameBoard = board;
+        for (int i = 0; i < 8; ++i) {
+            for (int j = 0; j < 8; ++j) {
+                if (board[i][j] == 1) {
+                    black |= 1L << (i * 8 + j);
+                } else if (board[i][j] == 2) {
+                    white |= 1L << (i * 8 + j);
+                }
+            }
+        }
+        this.zobristKey = zobrist(1, black) ^ zobrist(2, white);
     }
 
     public Board(Board board) {
-        this.gameBoard = new int[8][8];
-        for (int row = 0; row < 8; row++) {
-            System.arraycopy(board.getGameBoard()[row], 0, this.gameBoard[row], 0, 8);
-        }
+        this.black = board.black;
+        this.white = board.white;
+        this.zobristKey = board.zobristKey;
+    }
+
+    /**
+     * Constructor for a board restored with a Zobrist key computed before.
+     *
+     * @param black      the discs of player 1
+     * @param white      the discs of player 2
+     * @param zobristKey the Zobrist key of the discs
+     */
+    Board(long black, long white, long zobristKey) {
+        this.black = black;
+        this.white = white;
+        this.zobristKey = zobristKey;
     }
 
     public Board() {
-        this.gameBoard = new int[][] { { 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0, 0, 0, 0 },
-                { 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 2, 1, 0, 0, 0 }, { 0, 0, 0, 1, 2, 0, 0, 0 },
-                { 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0, 0, 0, 0 }, };
+        this.black = (1L << 28) | (1L << 35);
+        this.white = (1L << 27) | (1L << 36);
+        this.zobristKey = zobrist(1, black) ^ zobrist(2, white);
+    }
+
+    /**
+     * Overwrites this board with the position of another board.
+     *
+     * @param board the board to copy
+     */
+    public void copyFrom(Board board) {
+        this.black = board.black;
+        this.white = board.white;
+        this.zobristKey = board.zobristKey;
+    }
+
+    /**
+     * Overwrites this board with a position given as bitboards.
+     *
+     * @param black the discs of player 1
+     * @param white the discs of player 2
+     */
+    public void setBits(long black, long white) {
+        this.black = black;
+        this.white = white;
+        this.zobristKey = zobrist(1, black) ^ zobrist(2, white);
     }
 
     public int[][] getGameBoard() {
+        int[][] gameBoard = new int[8][8];
+        for (int i = 0; i < 8; ++i) {
+            for (int j = 0; j < 8; ++j) {
+                long bit = 1L << (i * 8 + j);
+                gameBoard[i][j] = (black & bit) != 0 ? 1 : (white & bit) != 0 ? 2 : 0;
+            }
+        }
         return gameBoard;
     }
 
+    /**
+     * Getter for the bitboard of a player.
+     *
+     * @param player the player
+     * @return long
+     */
+    public long getBits(int player) {
+        return player == 1 ? black : white;
+    }
+
+    /**
+     * Getter for the Zobrist key of the discs on the board.
+     *
+     * @return long
+     */
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    /**
+     * Getter for the bitboard of the empty squares.
+     *
+     * @return long
+     */
+    public long getEmpty() {
+        return ~(black | white);
+    }
+
+    /**
+     * Checks whether a square is empty.
+     *
+     * @param x the row of the square
+     * @param y the column of the square
+     * @return boolean
+     */
+    public boolean isEmpty(int x, int y) {
+        return ((black | white) & (1L << (x * 8 + y))) == 0;
+    }
+
     @Override
     public boolean equals(Object obj) {
-        return obj instanceof Board && Arrays.deepEquals(this.gameBoard, ((Board) obj).gameBoard);
+        return obj instanceof Board && this.black == ((Board) obj).black && this.white == ((Board) obj).white;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(zobristKey);
     }
 
     public boolean makeMove(int x, int y, int player) {
-        if (!(0 <= x && x < 8 && 0 <= y && y < 8) && gameBoard[x][y] == 0) {
+        if (!(0 <= x && x < 8 && 0 <= y && y < 8) || !isEmpty(x, y)) {
             return false;
         }
-        gameBoard[x][y] = player;
-        int opponent = player == 1 ? 2 : 1;
-        for (int i = -1; i <= 1; ++i) {
-            for (int j = -1; j <= 1; j++) {
-                if (i == 0 && j == 0) {
-                    continue;
-                }
-                int xpos = x + i;
-                int ypos = y + j;
-                if (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == opponent) {
-                    while (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == opponent) {
-                        xpos += i;
-                        ypos += j;
-                    }
-                    if (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == player) {
-                        while (!(xpos == x && ypos == y)) {
-                            gameBoard[xpos][ypos] = player;
-                            xpos -= i;
-                            ypos -= j;
-                        }
-                    }
-                }
-            }
+        long move = 1L << (x * 8 + y);
+        long own = getBits(player);
+        long opp = getBits(player == 1 ? 2 : 1);
+        long flips = flips(move, own, opp);
+        long newOwn = own | move | flips;
+        long newOpp = opp & ~(move | flips);
+        zobristKey ^= zobrist(player, own ^ newOwn) ^ zobrist(player == 1 ? 2 : 1, opp ^ newOpp);
+        own = newOwn;
+        opp = newOpp;
+        if (player == 1) {
+            black = own;
+            white = opp;
+        } else {
+            white = own;
+            black = opp;
         }
         return true;
     }
 
     public boolean checkMove(int x, int y, int player) {
-        if (!(0 <= x && x < 8 && 0 <= y && y < 8) && gameBoard[x][y] == 0) {
+        if (!(0 <= x && x < 8 && 0 <= y && y < 8) || !isEmpty(x, y)) {
             return false;
         }
-        int opponent = player == 1 ? 2 : 1;
-        for (int i = -1; i <= 1; ++i) {
-            for (int j = -1; j <= 1; j++) {
-                if (i == 0 && j == 0) {
-                    continue;
-                }
-                int xpos = x + i;
-                int ypos = y + j;
-                if (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == opponent) {
-                    while (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == opponent) {
-                        xpos += i;
-                        ypos += j;
-                    }
-                    if (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == player) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        return flips(1L << (x * 8 + y), getBits(player), getBits(player == 1 ? 2 : 1)) != 0;
+    }
+
+    /**
+     * Gets the bitboard of all legal moves for a player.
+     *
+     * @param player the player
+     * @return long
+     */
+    public long getMoveMask(int player) {
+        return moves(getBits(player), getBits(player == 1 ? 2 : 1));
     }
 
     public int getScore(int player) {
-        int score = 0;
-        for (int i = 0; i < 8; ++i) {
-            for (int j = 0; j < 8; ++j) {
-                if (gameBoard[i][j] == player) {
-                    score++;
-                }
-            }
-        }
-        return score;
+        return Long.bitCount(getBits(player));
     }
 
     public int[] getScores() {
-        int score1 = 0;
-        int score2 = 0;
-        for (int i = 0; i < 8; ++i) {
-            for (int j = 0; j < 8; ++j) {
-                if (gameBoard[i][j] == 1) {
-                    score1++;
-                }
-                if (gameBoard[i][j] == 2) {
-                    score2++;
-                }
-            }
-        }
-        return new int[] { score1, score2 };
+        return new int[] { Long.bitCount(black), Long.bitCount(white) };
     }
 
     public boolean isFull() {
-        for (int i = 0; i < 8; ++i) {
-            for (int j = 0; j < 8; ++j) {
-                if (gameBoard[i][j] == 0) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return (black | white) == -1L;
     }
 
     public List<int[]> getAllMoves(int player) {
         List<int[]> moves = new ArrayList<int[]>();
-        for (int i = 0; i < 8; ++i) {
-            for (int j = 0; j < 8; ++j) {
-                if (gameBoard[i][j] == 0) {
-                    if (checkMove(i, j, player)) {
-                        moves.add(new int[] { i, j });
-                    }
-                }
-            }
+        long mask = getMoveMask(player);
+        while (mask != 0) {
+            int square = Long.numberOfTrailingZeros(mask);
+            moves.add(new int[] { square >>> 3, square & 7 });
+            mask &= mask - 1;
         }
         return moves;
     }
 
     @Override
     public String toString() {
-        return Arrays.deepToString(gameBoard).replace("], ", "]\n") + "\n";
+        return Arrays.deepToString(getGameBoard()).replace("], ", "]\n") + "\n";
     }
 
     public boolean noMoves() {
-        return getAllMoves(1).size() == 0 && getAllMoves(2).size() == 0;
+        return moves(black, white) == 0 && moves(white, black) == 0;
     }
 
     public boolean gameOver() {
         return isFull() || noMoves();
     }
 
+    /**
+     * Combined Zobrist key of a player's discs on the given squares.
+     */
+    private static long zobrist(int player, long squares) {
+        long key = 0;
+        while (squares != 0) {
+            key ^= ZOBRIST[player][Long.numberOfTrailingZeros(squares)];
+            squares &= squares - 1;
+        }
+        return key;
+    }
+
+    /**
+     * Legal moves for the side owning {@code own}, found by flood-filling
+     * over opponent discs in all eight directions at once.
+     */
+    static long moves(long own, long opp) {
+        long empty = ~(own | opp);
+        long moves = 0;
+        for (int d = 0; d < 4; d++) {
+            int s = SHIFTS[d];
+            long lm = LEFT_MASKS[d];
+            long rm = RIGHT_MASKS[d];
+            long l = (own << s) & lm & opp;
+            long r = (own >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            moves |= ((l << s) & lm) | ((r >>> s) & rm);
+        }
+        return moves & empty;
+    }
+
+    /**
+     * Discs flipped by placing {@code move} for the side owning {@code own}.
+     */
+    static long flips(long move, long own, long opp) {
+        long flips = 0;
+        for (int d = 0; d < 4; d++) {
+            int s = SHIFTS[d];
+            long lm = LEFT_MASKS[d];
+            long rm = RIGHT_MASKS[d];
+            long l = (move << s) & lm & opp;
+            long r = (move >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            l |= (l << s) & lm & opp;
+            r |= (r >>> s) & rm & opp;
+            // A run only flips when it is capped by one of our own discs
+            flips |= ((l << s) & lm & own) == 0 ? 0 : l;
+            flips |= ((r >>> s) & rm & own) == 0 ? 0 : r;
+        }
+        return flips;
+    }
+
     public static void main(String[] args) {
         Board b = new Board();
         System.out.println(b.toString());
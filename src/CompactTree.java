@@ -0,0 +1,436 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Monte Carlo Tree Search over a preallocated struct-of-arrays node pool.
+ * A node is an int id into primitive arrays instead of an object, and the
+ * children of a node are stored next to each other, so a node costs a few
+ * dozen bytes and selection walks through flat arrays. Once the pool is
+ * full, leaves are no longer expanded but still get playouts.
+ *
+ * Without stored boards a node is only its statistics, links, move and
+ * side to move. Positions are then replayed from the root into a cursor
+ * while selection descends, trading a few bit operations per level for
+ * half the memory per node.
+ *
+ * Select, expand and backpropagate work like they do on {@link Node}.
+ * The tree is searched from a single thread.
+ *
+ * @author emsquellen
+ */
+public class CompactTree {
+    private static final double EXPLORATION = Math.sqrt(2);
+    private static final byte PASS = -1;
+
+    private final int capacity;
+    private final int[] visits;
+    private final int[] wins;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final byte[] numChildren;
+    private final byte[] move;
+    // Bit set when player 2 is to move
+    private final long[] playerBits;
+    // Positions per node, null when boards are replayed instead
+    private final long[] black;
+    private final long[] white;
+    private final boolean storeBoards;
+    private int size;
+
+    // Position of the node the cursor is on
+    private int cursorNode;
+    private long cursorBlack;
+    private long cursorWhite;
+    private final int[] replayPath;
+
+    private final Board scratch;
+    private Rollout rollout;
+
+    /**
+     * Constructor for a compact tree from the starting position.
+     *
+     * @param capacity the maximum number of nodes
+     */
+    public CompactTree(int capacity) {
+        this(new Board(), 1, capacity);
+    }
+
+    /**
+     * Constructor for a compact tree.
+     *
+     * @param board    the position of the root
+     * @param player   the player to move at the root
+     * @param capacity the maximum number of nodes
+     */
+    public CompactTree(Board board, int player, int capacity) {
+        this(board, player, capacity, true);
+    }
+
+    /**
+     * Constructor for a compact tree.
+     *
+     * @param board       the position of the root
+     * @param player      the player to move at the root
+     * @param capacity    the maximum number of nodes
+     * @param storeBoards whether every node keeps its position, instead of
+     *                    replaying it from the root when needed
+     */
+    public CompactTree(Board board, int player, int capacity, boolean storeBoards) {
+        this.capacity = capacity;
+        this.visits = new int[capacity];
+        this.wins = new int[capacity];
+        this.parent = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.numChildren = new byte[capacity];
+        this.move = new byte[capacity];
+        this.playerBits = new long[(capacity + 63) >>> 6];
+        this.storeBoards = storeBoards;
+        this.black = new long[storeBoards ? capacity : 1];
+        this.white = new long[storeBoards ? capacity : 1];
+        // A game has at most 60 moves and as many passes in between
+        this.replayPath = new int[128];
+        this.scratch = new Board();
+        this.rollout = new Rollout();
+        this.size = 1;
+        this.parent[0] = -1;
+        this.firstChild[0] = -1;
+        this.move[0] = PASS;
+        this.black[0] = board.getBits(1);
+        this.white[0] = board.getBits(2);
+        setPlayer(0, player);
+        this.cursorNode = 0;
+        this.cursorBlack = this.black[0];
+        this.cursorWhite = this.white[0];
+    }
+
+    /**
+     * Getter for the root node id.
+     */
+    public int getRoot() {
+        return 0;
+    }
+
+    /**
+     * Getter for the number of nodes in the tree.
+     */
+    public int getNodeCount() {
+        return size;
+    }
+
+    /**
+     * Getter for the maximum number of nodes.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Checks whether every node keeps its position.
+     */
+    public boolean isStoringBoards() {
+        return storeBoards;
+    }
+
+    /**
+     * Gets the position of a node.
+     *
+     * @param node the node
+     * @return Board
+     */
+    public Board getBoard(int node) {
+        moveCursor(node);
+        Board board = new Board();
+        board.setBits(cursorBlack, cursorWhite);
+        return board;
+    }
+
+    /**
+     * Getter for the visits of a node.
+     */
+    public int getVisits(int node) {
+        return visits[node];
+    }
+
+    /**
+     * Getter for the wins of a node, counted for the player who moved into it.
+     */
+    public int getWins(int node) {
+        return wins[node];
+    }
+
+    /**
+     * Getter for the parent of a node, -1 for the root.
+     */
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * Getter for the first child of a node, -1 if it has not been expanded.
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * Getter for the number of children of a node.
+     */
+    public int getNumChildren(int node) {
+        return numChildren[node];
+    }
+
+    /**
+     * Getter for the move that led to a node (x, y), (-1, -1) for a pass.
+     */
+    public int[] getMove(int node) {
+        int square = move[node];
+        return square == PASS ? new int[] { -1, -1 } : new int[] { square >>> 3, square & 7 };
+    }
+
+    /**
+     * Getter for the player to move at a node.
+     */
+    public int getPlayer(int node) {
+        return (playerBits[node >>> 6] & (1L << node)) != 0 ? 2 : 1;
+    }
+
+    /**
+     * Seeds the random source of the search, so searches with an iteration
+     * or node budget can be repeated exactly.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.rollout = new Rollout(new SplittableRandom(seed));
+    }
+
+    /**
+     * monte carlo tree search
+     */
+    public void monteCarlo() {
+        int selected = select();
+        expand(selected);
+        int startNode = numChildren[selected] == 0 ? selected
+                : firstChild[selected] + rollout.getRandom().nextInt(numChildren[selected]);
+        moveCursor(startNode);
+        scratch.setBits(cursorBlack, cursorWhite);
+        int winner = rollout.play(scratch, getPlayer(startNode));
+        backpropagate(startNode, winner);
+    }
+
+    /**
+     * Runs monte carlo iterations until one of the limits of the budget is
+     * reached, then picks the best move.
+     *
+     * @param budget the limits of the search
+     */
+    public SearchResult search(SearchBudget budget) {
+        long start = System.nanoTime();
+        long timeNanos = budget.getTimeNanos();
+        int iterations = 0;
+        while (iterations < budget.getMaxIterations()
+                && size < budget.getMaxNodes()
+                && System.nanoTime() - start < timeNanos) {
+            this.monteCarlo();
+            iterations++;
+        }
+        return new SearchResult(getBestMove(), iterations, System.nanoTime() - start);
+    }
+
+    /**
+     * Gets the move of the root child with the highest win loss ratio.
+     */
+    public int[] getBestMove() {
+        int bestChild = -1;
+        double bestRate = Double.NEGATIVE_INFINITY;
+        for (int child = firstChild[0]; child >= 0 && child < firstChild[0] + numChildren[0]; child++) {
+            double rate = visits[child] == 0 ? 0 : (double) wins[child] / visits[child];
+            if (rate > bestRate) {
+                bestRate = rate;
+                bestChild = child;
+            }
+        }
+        if (bestChild < 0) {
+            throw new IllegalStateException("The root has no children");
+        }
+        return getMove(bestChild);
+    }
+
+    /**
+     * Selects a leaf by descending through the children with the highest
+     * UCB1 value. Unvisited children are always tried first. The cursor
+     * follows the descent, so the position of the leaf is at hand.
+     */
+    public int select() {
+        int node = 0;
+        moveCursor(0);
+        while (numChildren[node] > 0) {
+            double logVisits = Math.log(Math.max(1, visits[node]));
+            int first = firstChild[node];
+            int bestChild = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int child = first; child < first + numChildren[node]; child++) {
+                double value = visits[child] == 0 ? Double.POSITIVE_INFINITY
+                        : (double) wins[child] / visits[child]
+                                + EXPLORATION * Math.sqrt(logVisits / visits[child]);
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestChild = child;
+                }
+            }
+            node = bestChild;
+            moveCursor(node);
+        }
+        return node;
+    }
+
+    /**
+     * Expands a leaf by adding all of its children in one block.
+     *
+     * @return the number of children added
+     */
+    public int expand(int node) {
+        if (firstChild[node] >= 0) {
+            return 0;
+        }
+        int player = getPlayer(node);
+        moveCursor(node);
+        long own = player == 1 ? cursorBlack : cursorWhite;
+        long opp = player == 1 ? cursorWhite : cursorBlack;
+        long moves = Board.moves(own, opp);
+        // A player without moves passes when the game is not over yet
+        boolean pass = moves == 0 && Board.moves(opp, own) != 0;
+        int count = pass ? 1 : Long.bitCount(moves);
+        if (count == 0 || size + count > capacity) {
+            return 0;
+        }
+
+        int first = size;
+        for (int child = first; child < first + count; child++) {
+            long newOwn = own;
+            long newOpp = opp;
+            byte square = PASS;
+            if (!pass) {
+                square = (byte) Long.numberOfTrailingZeros(moves);
+                moves &= moves - 1;
+                long bit = 1L << square;
+                long flips = Board.flips(bit, own, opp);
+                newOwn = own | bit | flips;
+                newOpp = opp & ~flips;
+            }
+            parent[child] = node;
+            firstChild[child] = -1;
+            numChildren[child] = 0;
+            move[child] = square;
+            visits[child] = 0;
+            wins[child] = 0;
+            if (storeBoards) {
+                black[child] = player == 1 ? newOwn : newOpp;
+                white[child] = player == 1 ? newOpp : newOwn;
+            }
+            setPlayer(child, player == 1 ? 2 : 1);
+        }
+        size += count;
+        firstChild[node] = first;
+        numChildren[node] = (byte) count;
+        return count;
+    }
+
+    /**
+     * Backpropagates the result of a playout from a node up to the root.
+     * Every node counts the result for the player who moved into it.
+     */
+    public void backpropagate(int node, int winner) {
+        for (int current = node; current >= 0; current = parent[current]) {
+            visits[current]++;
+            // The player who moved into a node is the one not to move there
+            if (winner != 0 && winner != getPlayer(current)) {
+                wins[current]++;
+            }
+        }
+    }
+
+    /**
+     * Moves the cursor to the position of a node. Stored boards are read
+     * directly; otherwise a child of the cursor node costs one move, and
+     * any other node is replayed from the root.
+     */
+    private void moveCursor(int node) {
+        if (storeBoards) {
+            cursorNode = node;
+            cursorBlack = black[node];
+            cursorWhite = white[node];
+        } else if (node != cursorNode) {
+            if (parent[node] != cursorNode) {
+                int depth = 0;
+                for (int current = parent[node]; current > 0; current = parent[current]) {
+                    replayPath[depth++] = current;
+                }
+                cursorBlack = black[0];
+                cursorWhite = white[0];
+                while (depth > 0) {
+                    playMove(replayPath[--depth]);
+                }
+            }
+            playMove(node);
+            cursorNode = node;
+        }
+    }
+
+    /**
+     * Plays the move leading to a node on the cursor position.
+     */
+    private void playMove(int node) {
+        int square = move[node];
+        if (square == PASS) {
+            return;
+        }
+        long bit = 1L << square;
+        if (getPlayer(parent[node]) == 1) {
+            long flips = Board.flips(bit, cursorBlack, cursorWhite);
+            cursorBlack |= bit | flips;
+            cursorWhite &= ~flips;
+        } else {
+            long flips = Board.flips(bit, cursorWhite, cursorBlack);
+            cursorWhite |= bit | flips;
+            cursorBlack &= ~flips;
+        }
+    }
+
+    private void setPlayer(int node, int player) {
+        if (player == 2) {
+            playerBits[node >>> 6] |= 1L << node;
+        } else {
+            playerBits[node >>> 6] &= ~(1L << node);
+        }
+    }
+
+    /**
+     * String representation of the root children.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append("CompactTree: ")
+                .append(size)
+                .append(" nodes\n");
+        for (int child = firstChild[0]; child >= 0 && child < firstChild[0] + numChildren[0]; child++) {
+            builder.append(Arrays.toString(getMove(child)))
+                    .append(" visits: ")
+                    .append(visits[child])
+                    .append(" wins: ")
+                    .append(wins[child])
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    public static void main(String[] args) {
+        CompactTree tree = new CompactTree(1 << 20);
+        System.out.println(tree.search(SearchBudget.ofMillis(1000)));
+        System.out.println(tree);
+        CompactTree replayed = new CompactTree(new Board(), 1, 1 << 20, false);
+        System.out.println(replayed.search(SearchBudget.ofMillis(1000)));
+        System.out.println(replayed);
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Exact endgame solver: an alpha-beta search to the end of the game on
+ * bitboards. Moves are ordered fastest-first, leaving the opponent as few
+ * replies as possible, while many squares are empty, and by parity near
+ * the end, preferring regions with an odd number of empty squares.
+ *
+ * A solver keeps scratch space per search depth, so a single instance
+ * serves any number of searches on one thread.
+ *
+ * @author emsquellen
+ */
+public class EndgameSolver {
+    private static final ThreadLocal<EndgameSolver> CURRENT = ThreadLocal.withInitial(EndgameSolver::new);
+
+    // Fastest-first ordering pays off above this many empty squares,
+    // parity ordering below it
+    private static final int FASTEST_FIRST_EMPTIES = 7;
+
+    // The four 4x4 regions of the board, used for parity
+    private static final long[] QUADRANTS = {
+            0x000000000F0F0F0FL, 0x00000000F0F0F0F0L, 0x0F0F0F0F00000000L, 0xF0F0F0F000000000L };
+
+    // Per number of empty squares: the ordered moves and their sort keys,
+    // with room for a move on every empty square
+    private final long[][] orderedMoves = new long[65][64];
+    private final int[][] orderKeys = new int[65][64];
+    private long nodes;
+
+    /**
+     * Gets the endgame solver of the current thread.
+     *
+     * @return EndgameSolver
+     */
+    public static EndgameSolver current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Getter for the number of positions searched so far.
+     *
+     * @return long
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Solves a position exactly.
+     *
+     * @param board  the position
+     * @param player the player to move
+     * @return the final disc difference for the player to move under
+     *         perfect play
+     */
+    public int solve(Board board, int player) {
+        return search(board.getBits(player), board.getBits(player == 1 ? 2 : 1), -64, 64, false);
+    }
+
+    /**
+     * Solves who wins a position, which is cheaper than solving the exact
+     * disc difference.
+     *
+     * @param board  the position
+     * @param player the player to move
+     * @return the winning player under perfect play, or 0 for a draw
+     */
+    public int solveWinner(Board board, int player) {
+        int score = search(board.getBits(player), board.getBits(player == 1 ? 2 : 1), -1, 1, false);
+        int opponent = player == 1 ? 2 : 1;
+        return score > 0 ? player : score < 0 ? opponent : 0;
+    }
+
+    /**
+     * Negamax alpha-beta search.
+     *
+     * @return the disc difference for the side owning {@code own}, exact
+     *         within (alpha, beta) and a bound outside it
+     */
+    private int search(long own, long opp, int alpha, int beta, boolean passed) {
+        nodes++;
+        long empty = ~(own | opp);
+        if (empty == 0) {
+            return Long.bitCount(own) - Long.bitCount(opp);
+        }
+        long moves = Board.moves(own, opp);
+        if (moves == 0) {
+            // The game ends when both players have to pass in a row
+            if (passed) {
+                return Long.bitCount(own) - Long.bitCount(opp);
+            }
+            return -search(opp, own, -beta, -alpha, true);
+        }
+
+        int empties = Long.bitCount(empty);
+        long[] ordered = orderedMoves[empties];
+        int count = empties > FASTEST_FIRST_EMPTIES
+                ? orderFastestFirst(moves, own, opp, ordered, orderKeys[empties])
+                : orderByParity(moves, empty, ordered);
+        int best = -65;
+        for (int i = 0; i < count; i++) {
+            long move = ordered[i];
+            long flips = Board.flips(move, own, opp);
+            int score = -search(opp & ~flips, own | move | flips, -beta, -alpha, false);
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Orders the moves by the number of replies they leave the opponent,
+     * fewest first
+     *
+     * @return the number of moves
+     */
+    private static int orderFastestFirst(long moves, long own, long opp, long[] ordered, int[] keys) {
+        int count = 0;
+        while (moves != 0) {
+            long move = moves & -moves;
+            moves &= moves - 1;
+            long flips = Board.flips(move, own, opp);
+            int key = Long.bitCount(Board.moves(opp & ~flips, own | move | flips));
+            // Insertion sort, there are rarely more than a dozen moves
+            int i = count++;
+            while (i > 0 && keys[i - 1] > key) {
+                ordered[i] = ordered[i - 1];
+                keys[i] = keys[i - 1];
+                i--;
+            }
+            ordered[i] = move;
+            keys[i] = key;
+        }
+        return count;
+    }
+
+    /**
+     * Orders the moves in regions with an odd number of empty squares
+     * before the others
+     *
+     * @return the number of moves
+     */
+    private static int orderByParity(long moves, long empty, long[] ordered) {
+        long odd = 0;
+        for (long quadrant : QUADRANTS) {
+            if ((Long.bitCount(empty & quadrant) & 1) != 0) {
+                odd |= quadrant;
+            }
+        }
+        int count = 0;
+        for (long part = moves & odd; part != 0; part &= part - 1) {
+            ordered[count++] = part & -part;
+        }
+        for (long part = moves & ~odd; part != 0; part &= part - 1) {
+            ordered[count++] = part & -part;
+        }
+        return count;
+    }
+}
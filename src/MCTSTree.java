@@ -1,16 +1,94 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * Monte Carlo Tree Search
  * 
  * @author emsquellen
  */
 public class MCTSTree {
+    private static final int DEFAULT_ITERATIONS = 40;
+    // Rough heap cost of a Node with its State, Board and child list entry
+    private static final int ESTIMATED_NODE_BYTES = 160;
+    // Eviction shrinks the tree to this fraction of the node limit
+    private static final double EVICTION_TARGET = 0.75;
+    // Leaves with this many empty squares or fewer are solved exactly
+    private static final int DEFAULT_ENDGAME_EMPTIES = 10;
+    // Solves at more empty squares than this could overrun any time budget
+    private static final int MAX_ENDGAME_EMPTIES = 14;
+
+    /**
+     * How a search is spread over threads
+     */
+    public enum Parallelism {
+        /** All iterations run on the calling thread */
+        NONE,
+        /** Every worker searches its own tree, merged at the root afterwards */
+        ROOT,
+        /** All workers search this tree, spread out by virtual loss */
+        TREE,
+        /** Every iteration runs one playout per worker from the selected leaf */
+        LEAF
+    }
+
     private Node root;
+    private final AtomicInteger nodeCount;
+    private Parallelism parallelism;
+    private int threads;
+    private TranspositionTable table;
+    private int nodeLimit;
+    private final AtomicLong evictedCount;
+    private final AtomicBoolean evicting;
+    // Shared iterations hold the read lock, eviction the write lock, so
+    // nodes are never pruned or dropped from the table under an iteration
+    private final ReadWriteLock evictionLock;
+    // Root and node count at which the last eviction freed nothing;
+    // eviction waits for the root to change or the tree to grow further
+    private volatile Node evictionStalledRoot;
+    private volatile int evictionRetryCount;
+    private volatile SearchStatistics statistics;
+    private SplittableRandom seeds;
+    private Rollout rollout;
+    private int batchSize;
+    private int endgameEmpties;
+    private OpeningBook book;
+    private boolean playBookMoves;
+    private volatile boolean pondering;
+    private ForkJoinPool ponderPool;
+    private List<Future<Void>> ponderTasks;
+    private final AtomicInteger ponderIterations;
 
     /**
      * Constructor for MCTS tree
      */
     public MCTSTree() {
         this.root = new Node(null, new Board(), 1, 3, 3);
+        this.nodeCount = new AtomicInteger(1);
+        this.parallelism = Parallelism.NONE;
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.nodeLimit = Integer.MAX_VALUE;
+        this.evictedCount = new AtomicLong();
+        this.evicting = new AtomicBoolean();
+        this.evictionLock = new ReentrantReadWriteLock();
+        this.ponderIterations = new AtomicInteger();
+        this.endgameEmpties = DEFAULT_ENDGAME_EMPTIES;
     }
 
     /**
@@ -21,69 +99,1177 @@ public class MCTSTree {
     }
 
     /**
-     * Setter for root node
+     * Setter for root node. The transposition table is refilled from the
+     * subtree of the new root, so it no longer hands out nodes of the old
+     * tree.
      */
     public void setRoot(Node root) {
+        stopPondering();
         this.root = root;
+        if (table != null) {
+            table.clear();
+        }
+        Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        promote(root, seen);
+        this.nodeCount.set(seen.size());
+    }
+
+    /**
+     * Plays a move on the tree. The child reached by the move becomes the
+     * new root and keeps its subtree and statistics, while its siblings are
+     * cut loose so they can be garbage collected. A move of (-1, -1) passes.
+     * Pondering is stopped first, so the new root keeps what it found.
+     *
+     * @param x the x coordinate of the move
+     * @param y the y coordinate of the move
+     * @return Node the new root
+     * @throws IllegalArgumentException if the move is not legal, or is a
+     *                                  pass while the side to move has a
+     *                                  legal move
+     */
+    public Node advance(int x, int y) {
+        State state = root.getState();
+        boolean legal = x == -1 && y == -1
+                ? state.getBoard().getMoveMask(state.getPlayer()) == 0
+                : state.getBoard().checkMove(x, y, state.getPlayer());
+        if (!legal) {
+            throw new IllegalArgumentException("Illegal move for player " + state.getPlayer() + ": " + x + ", " + y);
+        }
+        stopPondering();
+        SearchEvents.TreeReuseEvent event = new SearchEvents.TreeReuseEvent();
+        event.begin();
+        int nodesBefore = nodeCount.get();
+        Node child = root.getChild(x, y);
+        boolean reused = child != null;
+        if (child == null) {
+            Board board = new Board(root.getState().getBoard());
+            board.makeMove(x, y, root.getState().getPlayer());
+            child = new Node(null, board, root.getState().getOpponent(), x, y);
+            seed(child);
+        }
+        child.setParent(null);
+        this.root = child;
+        if (table != null) {
+            table.clear();
+        }
+        Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        promote(child, seen);
+        nodeCount.set(seen.size());
+        if (event.shouldCommit()) {
+            event.moveX = x;
+            event.moveY = y;
+            event.reused = reused;
+            event.nodesBefore = nodesBefore;
+            event.nodesKept = seen.size();
+            event.visitsKept = child.getVisits();
+            event.commit();
+        }
+        return child;
+    }
+
+    /**
+     * Starts searching the current root in the background, typically while
+     * the opponent thinks about their move. A tree-parallel tree ponders
+     * with all its threads, any other tree with one thread. Pondering runs
+     * until it is stopped, the root is decided, or the tree is changed by
+     * {@link #advance(int, int)}, {@link #search(SearchBudget)},
+     * {@link #setRoot(Node)} or {@link #load(Path)}, which stop it first.
+     * A node limit keeps a long ponder within memory.
+     */
+    public synchronized void startPondering() {
+        ponder(0);
+    }
+
+    /**
+     * Starts pondering, counting on from iterations pondered before a pause
+     */
+    private synchronized void ponder(int pondered) {
+        if (pondering) {
+            return;
+        }
+        pondering = true;
+        ponderIterations.set(pondered);
+        boolean shared = parallelism == Parallelism.TREE && threads > 1;
+        Rollout[] workerRollouts = shared ? workerRollouts()
+                : new Rollout[] { seeds == null ? null : new Rollout(seeds.split()) };
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for (Rollout workerRollout : workerRollouts) {
+            workers.add(() -> {
+                Rollout rollout = workerRollout != null ? workerRollout : Rollout.current();
+                while (pondering && !isDecided()) {
+                    if (shared) {
+                        monteCarloShared(rollout);
+                    } else {
+                        monteCarlo(rollout);
+                    }
+                    ponderIterations.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        ponderPool = new ForkJoinPool(workers.size());
+        ponderTasks = new ArrayList<Future<Void>>();
+        for (Callable<Void> worker : workers) {
+            ponderTasks.add(ponderPool.submit(worker));
+        }
+    }
+
+    /**
+     * Stops pondering and waits for the iterations in flight to finish.
+     * The statistics gathered stay in the tree.
+     *
+     * @return int the number of iterations pondered, 0 if the tree was not
+     *         pondering
+     */
+    public synchronized int stopPondering() {
+        if (ponderPool == null) {
+            return 0;
+        }
+        pondering = false;
+        try {
+            for (Future<Void> task : ponderTasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Stopping pondering was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Pondering failed", e.getCause());
+        } finally {
+            ponderPool.shutdown();
+            ponderPool = null;
+            ponderTasks = null;
+        }
+        return ponderIterations.get();
+    }
+
+    /**
+     * Checks whether the tree is searching in the background.
+     *
+     * @return boolean
+     */
+    public boolean isPondering() {
+        return pondering;
+    }
+
+    /**
+     * Walks the subtree of a new root, pointing shared nodes whose first
+     * parent was cut loose at a parent inside the subtree and putting the
+     * nodes back in the transposition table
+     */
+    private void promote(Node node, Set<Node> seen) {
+        seen.add(node);
+        if (table != null) {
+            table.putIfAbsent(node);
+        }
+        for (Node child : node.getChildren()) {
+            if (!seen.contains(child)) {
+                child.setParent(node);
+                promote(child, seen);
+            }
+        }
+    }
+
+    /**
+     * Saves the tree to a {@link TreeSnapshot} file, to be loaded again
+     * by {@link #load(Path)} in this or another process. The tree should
+     * not be searched while it is saved; pondering is paused for the save.
+     *
+     * @param path the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(Path path) throws IOException {
+        boolean wasPondering = pondering;
+        int pondered = stopPondering();
+        try {
+            TreeSnapshot.save(root, path);
+        } finally {
+            if (wasPondering) {
+                ponder(pondered);
+            }
+        }
+    }
+
+    /**
+     * Replaces the tree by one loaded from a {@link TreeSnapshot} file, so
+     * a search goes on warm from where the saved search stopped.
+     *
+     * @param path the snapshot file
+     * @return Node the new root
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public Node load(Path path) throws IOException {
+        Node loaded = TreeSnapshot.load(path);
+        stopPondering();
+        this.root = loaded;
+        if (table != null) {
+            table.clear();
+        }
+        // The saved parents are kept, unlike after advancing
+        Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        countNodes(loaded, seen);
+        if (table != null) {
+            for (Node node : seen) {
+                table.putIfAbsent(node);
+            }
+        }
+        nodeCount.set(seen.size());
+        return loaded;
+    }
+
+    /**
+     * Getter for the number of nodes in the tree
+     */
+    public int getNodeCount() {
+        return nodeCount.get();
+    }
+
+    /**
+     * Getter for the number of nodes evicted from the tree so far
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Getter for the node limit
+     */
+    public int getNodeLimit() {
+        return nodeLimit;
+    }
+
+    /**
+     * Sets the maximum number of live nodes. When the tree reaches the
+     * limit, the least visited subtrees are pruned until it is back under
+     * it, and searching goes on.
+     *
+     * @param nodeLimit the maximum number of nodes
+     */
+    public void setNodeLimit(int nodeLimit) {
+        if (nodeLimit < 2) {
+            throw new IllegalArgumentException("nodeLimit must be at least 2: " + nodeLimit);
+        }
+        this.nodeLimit = nodeLimit;
+        this.evictionStalledRoot = null;
+    }
+
+    /**
+     * Sets the node limit from a heap budget, using a rough estimate of the
+     * bytes a node takes.
+     *
+     * @param bytes the heap budget of the tree in bytes
+     */
+    public void setMemoryLimit(long bytes) {
+        setNodeLimit((int) Math.min(Integer.MAX_VALUE, bytes / ESTIMATED_NODE_BYTES));
+    }
+
+    /**
+     * Getter for the parallelism mode
+     */
+    public Parallelism getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Getter for the number of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets how searches are spread over threads
+     *
+     * @param parallelism the parallelism mode
+     * @param threads     the number of worker threads
+     */
+    public void setParallelism(Parallelism parallelism, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.parallelism = parallelism;
+        this.threads = threads;
+    }
+
+    /**
+     * Getter for the transposition table
+     */
+    public TranspositionTable getTranspositionTable() {
+        return table;
+    }
+
+    /**
+     * Setter for the transposition table. With a table, positions reached
+     * through different move orders share one node.
+     *
+     * @param table the transposition table, or null to disable it
+     */
+    public void setTranspositionTable(TranspositionTable table) {
+        this.table = table;
+        if (table != null) {
+            table.putIfAbsent(root);
+        }
+    }
+
+    /**
+     * Getter for the search statistics
+     *
+     * @return SearchStatistics, or null if collecting them is turned off
+     */
+    public SearchStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Turns collecting search statistics on or off. Turning it on starts
+     * from zero; while it is off, iterations are not timed at all.
+     *
+     * @param enabled whether to collect statistics
+     */
+    public void setStatisticsEnabled(boolean enabled) {
+        this.statistics = enabled ? new SearchStatistics() : null;
+    }
+
+    /**
+     * Seeds the random sources of the search. Every thread of a search
+     * gets its own generator split off from the seed, so searches with an
+     * iteration or node budget can be repeated exactly, except for
+     * tree-parallel searches whose workers interleave nondeterministically.
+     *
+     * @param seed the master seed
+     */
+    public void setSeed(long seed) {
+        this.seeds = new SplittableRandom(seed);
+        this.rollout = new Rollout(seeds.split());
+    }
+
+    /**
+     * Getter for the number of playouts per worker in a batch, 0 if batch
+     * playouts are turned off
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of games each worker plays out per iteration on a
+     * {@link BatchRollout}, in lockstep on SIMD lanes. Batches are played
+     * by leaf-parallel searches, which then also run on a single thread,
+     * and by the workers of root-parallel searches. Batch playouts need the
+     * jdk.incubator.vector module.
+     *
+     * @param batchSize the playouts per worker per iteration, or 0 to play
+     *                  out one game at a time
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("batchSize must not be negative: " + batchSize);
+        }
+        // Checked without loading BatchRollout, which needs the module
+        if (batchSize > 0 && !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            throw new IllegalStateException("Batch playouts need --add-modules jdk.incubator.vector");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Getter for the number of empty squares at which playouts give way
+     * to the endgame solver, 0 if it is turned off
+     */
+    public int getEndgameEmpties() {
+        return endgameEmpties;
+    }
+
+    /**
+     * Sets the number of empty squares at or below which a leaf is solved
+     * exactly by the {@link EndgameSolver} instead of played out at random.
+     * Solving takes well under a millisecond up to about 10 empty squares
+     * and grows about tenfold per two squares beyond that. A solve does not
+     * stop at the deadline of the search, so the threshold is capped at 14.
+     *
+     * @param endgameEmpties the number of empty squares, or 0 to always
+     *                       play out
+     */
+    public void setEndgameEmpties(int endgameEmpties) {
+        if (endgameEmpties < 0 || endgameEmpties > MAX_ENDGAME_EMPTIES) {
+            throw new IllegalArgumentException(
+                    "endgameEmpties must be between 0 and " + MAX_ENDGAME_EMPTIES + ": " + endgameEmpties);
+        }
+        this.endgameEmpties = endgameEmpties;
+    }
+
+    /**
+     * Getter for the opening book, null if the search does not use one
+     */
+    public OpeningBook getOpeningBook() {
+        return book;
+    }
+
+    /**
+     * Sets the opening book. New nodes of positions in the book start out
+     * with the statistics of the book, and so does an unvisited root.
+     *
+     * @param book          the opening book, or null to stop using one
+     * @param playBookMoves whether a search of a position with a book move
+     *                      plays that move right away instead of searching
+     */
+    public void setOpeningBook(OpeningBook book, boolean playBookMoves) {
+        this.book = book;
+        this.playBookMoves = playBookMoves;
+        if (root.getVisits() == 0) {
+            seed(root);
+        }
+    }
+
+    /**
+     * Seeds a new root with the statistics of its position in the opening
+     * book, if it is there
+     */
+    private void seed(Node node) {
+        OpeningBook book = this.book;
+        if (book != null) {
+            book.seed(node);
+        }
+    }
+
+    /**
+     * Seeds the new node at the end of a path with the statistics of its
+     * position in the opening book, if it is there. The book games count
+     * for every node on the path, as if they had been played out from the
+     * new node, so no parent has fewer visits than its children together.
+     */
+    private void seed(List<Node> path) {
+        OpeningBook book = this.book;
+        if (book == null) {
+            return;
+        }
+        Node node = path.get(path.size() - 1);
+        int[] stats = book.getStatistics(node.getState());
+        if (stats == null) {
+            return;
+        }
+        // The book counts wins for the player who moved into the node
+        int mover = node.getState().getOpponent();
+        int wins = stats[1];
+        int losses = stats[2];
+        Node.backpropagate(path, stats[0], mover == 1 ? wins : losses, mover == 2 ? wins : losses);
+    }
+
+    /**
+     * Result playing the book move of the root, expanding the root up to
+     * the child of that move if needed
+     *
+     * @return the result, or null if there is no book move to play
+     */
+    private SearchResult bookResult() {
+        if (book == null || !playBookMoves) {
+            return null;
+        }
+        long start = System.nanoTime();
+        int[] move = book.getMove(root.getState());
+        if (move == null) {
+            return null;
+        }
+        Node child = root.getChild(move[0], move[1]);
+        while (child == null && root.hasUntriedMoves()) {
+            List<Node> path = new ArrayList<Node>();
+            path.add(root);
+            expand(root, path);
+            child = root.getChild(move[0], move[1]);
+        }
+        // A move that is not legal here means the book is not about this
+        // position after all, so search instead
+        if (child == null) {
+            return null;
+        }
+        return new SearchResult(child, move, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Checks whether the position of a node is left to the endgame solver
+     */
+    private boolean isSolvable(Node node) {
+        return Long.bitCount(node.getState().getBoard().getEmpty()) <= endgameEmpties;
+    }
+
+    /**
+     * Simulates the game from a leaf: the known result of a proven leaf,
+     * solved exactly near the end, played out at random before that
+     */
+    private Outcome simulate(Node leaf, Rollout rollout) {
+        return leaf.updateProof() || isSolvable(leaf) ? leaf.solve(EndgameSolver.current()) : leaf.playout(rollout);
+    }
+
+    /**
+     * Rollout engine of the calling thread: the seeded one of this tree,
+     * or else the thread's own
+     */
+    private Rollout rollout() {
+        return rollout != null ? rollout : Rollout.current();
+    }
+
+    /**
+     * Rollout engines for the workers of a search, split off from the seed,
+     * or null entries to use the workers' own
+     */
+    private Rollout[] workerRollouts() {
+        Rollout[] rollouts = new Rollout[threads];
+        if (seeds != null) {
+            for (int i = 0; i < threads; i++) {
+                rollouts[i] = new Rollout(seeds.split());
+            }
+        }
+        return rollouts;
     }
 
     /**
      * monte carlo tree search
      */
     public void monteCarlo() {
-        Node selected = root.select();
-        if (selected != null) {
-            selected.expand();
-            Outcome outcome = selected.playout();
-            selected.backpropagate(outcome);
+        monteCarlo(rollout());
+    }
+
+    /**
+     * monte carlo tree search iteration with the given rollout engine
+     */
+    private void monteCarlo(Rollout rollout) {
+        SearchStatistics stats = this.statistics;
+        SearchEvents.IterationEvent event = SearchEvents.sampleIteration();
+        boolean timed = stats != null || event != null;
+        long t0 = timed ? System.nanoTime() : 0;
+        List<Node> path = new ArrayList<Node>();
+        Node selected = root.select(path);
+        long t1 = timed ? System.nanoTime() : 0;
+        Node leaf = expand(selected, path);
+        long t2 = timed ? System.nanoTime() : 0;
+        Outcome outcome = simulate(leaf, rollout);
+        long t3 = timed ? System.nanoTime() : 0;
+        leaf.backpropagate(outcome, path);
+        if (timed) {
+            record(stats, event, path.size() - 1, 1, t1 - t0, t2 - t1, t3 - t2, System.nanoTime() - t3);
+        }
+        if (nodeCount.get() >= nodeLimit) {
+            evict();
+        }
+    }
+
+    /**
+     * monte carlo tree search iteration that can run concurrently with
+     * others on the same tree
+     */
+    private void monteCarloShared(Rollout rollout) {
+        SearchStatistics stats = this.statistics;
+        SearchEvents.IterationEvent event = SearchEvents.sampleIteration();
+        boolean timed = stats != null || event != null;
+        long t0;
+        long t1;
+        long t2;
+        long t3;
+        List<Node> path = new ArrayList<Node>();
+        evictionLock.readLock().lock();
+        try {
+            t0 = timed ? System.nanoTime() : 0;
+            Node selected = root.selectWithVirtualLoss(path);
+            int selectedLength = path.size();
+            t1 = timed ? System.nanoTime() : 0;
+            Node leaf = expand(selected, path);
+            t2 = timed ? System.nanoTime() : 0;
+            Outcome outcome = simulate(leaf, rollout);
+            t3 = timed ? System.nanoTime() : 0;
+            // Only the selected nodes carry a virtual loss, not the new leaf
+            Node.removeVirtualLoss(path.subList(0, selectedLength));
+            leaf.backpropagate(outcome, path);
+        } finally {
+            evictionLock.readLock().unlock();
+        }
+        if (timed) {
+            record(stats, event, path.size() - 1, 1, t1 - t0, t2 - t1, t3 - t2, System.nanoTime() - t3);
+        }
+        if (nodeCount.get() >= nodeLimit) {
+            evict();
+        }
+    }
+
+    /**
+     * Batch rollout engines for the workers of a search, split off from
+     * the seed, or null entries to use the workers' own
+     */
+    private BatchRollout[] workerBatches(Rollout[] workerRollouts) {
+        BatchRollout[] batches = new BatchRollout[threads];
+        if (batchSize > 0) {
+            for (int i = 0; i < threads; i++) {
+                batches[i] = workerRollouts[i] == null ? null : new BatchRollout(workerRollouts[i].getRandom());
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * monte carlo tree search iteration that runs one playout, or one
+     * batch of playouts, per worker from the selected leaf and
+     * backpropagates their combined result. Without a pool the only worker
+     * runs on the calling thread.
+     */
+    private void monteCarloLeafParallel(ForkJoinPool pool, Rollout rollout, Rollout[] workerRollouts,
+            BatchRollout[] workerBatches)
+            throws InterruptedException, ExecutionException {
+        SearchStatistics stats = this.statistics;
+        SearchEvents.IterationEvent event = SearchEvents.sampleIteration();
+        boolean timed = stats != null || event != null;
+        long t0 = timed ? System.nanoTime() : 0;
+        List<Node> path = new ArrayList<Node>();
+        Node selected = root.select(path);
+        long t1 = timed ? System.nanoTime() : 0;
+        Node leaf = expand(selected, path);
+        long t2 = timed ? System.nanoTime() : 0;
+        int[] wins;
+        int count;
+        if (leaf.updateProof() || isSolvable(leaf)) {
+            // One exact result instead of the playouts
+            Outcome.OutcomeType result = leaf.solve(EndgameSolver.current()).getType();
+            wins = new int[3];
+            wins[result == Outcome.OutcomeType.WIN ? leaf.getState().getPlayer()
+                    : result == Outcome.OutcomeType.LOSS ? leaf.getState().getOpponent() : 0]++;
+            count = 1;
+        } else {
+            Node startNode = leaf.getPlayoutStart(rollout.getRandom());
+            if (startNode != leaf) {
+                path.add(startNode);
+            }
+            Board board = startNode.getState().getBoard();
+            int player = startNode.getState().getPlayer();
+            if (pool == null) {
+                wins = playouts(board, player, workerRollouts[0], workerBatches[0]);
+            } else {
+                wins = new int[3];
+                List<Callable<int[]>> playouts = new ArrayList<Callable<int[]>>();
+                for (int i = 0; i < threads; i++) {
+                    Rollout workerRollout = workerRollouts[i];
+                    BatchRollout workerBatch = workerBatches[i];
+                    playouts.add(() -> playouts(board, player, workerRollout, workerBatch));
+                }
+                for (Future<int[]> future : pool.invokeAll(playouts)) {
+                    int[] workerWins = future.get();
+                    for (int winner = 0; winner < 3; winner++) {
+                        wins[winner] += workerWins[winner];
+                    }
+                }
+            }
+            count = threads * Math.max(1, batchSize);
+        }
+        long t3 = timed ? System.nanoTime() : 0;
+        Node.backpropagate(path, count, wins[1], wins[2]);
+        if (timed) {
+            record(stats, event, path.size() - 1, count, t1 - t0, t2 - t1, t3 - t2, System.nanoTime() - t3);
+        }
+        if (nodeCount.get() >= nodeLimit) {
+            evict();
+        }
+    }
+
+    /**
+     * Plays out the games of one worker: a batch if batch playouts are on,
+     * else a single game
+     *
+     * @return the number of draws and wins per player, indexed by winner
+     */
+    private int[] playouts(Board board, int player, Rollout workerRollout, BatchRollout workerBatch) {
+        if (batchSize > 0) {
+            return (workerBatch != null ? workerBatch : BatchRollout.current()).play(board, player, batchSize);
+        }
+        int[] wins = new int[3];
+        wins[(workerRollout != null ? workerRollout : Rollout.current()).play(board, player)]++;
+        return wins;
+    }
+
+    /**
+     * Records the phase times of an iteration in the statistics and the
+     * sampled flight recorder event, whichever of the two is present
+     */
+    private static void record(SearchStatistics stats, SearchEvents.IterationEvent event, int depth, int playouts,
+            long selectNanos, long expandNanos, long playoutNanos, long backpropagateNanos) {
+        if (stats != null) {
+            stats.recordIteration(depth, playouts, selectNanos, expandNanos, playoutNanos, backpropagateNanos);
+        }
+        if (event != null) {
+            event.end();
+            event.depth = depth;
+            event.playouts = playouts;
+            event.selectNanos = selectNanos;
+            event.expandNanos = expandNanos;
+            event.playoutNanos = playoutNanos;
+            event.backpropagateNanos = backpropagateNanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Expands the selected node by one child and adds the child to the
+     * path. The playout then starts from the child, or from the selected
+     * node itself if it has no untried moves left.
+     *
+     * @return the node to play out from
+     */
+    private Node expand(Node selected, List<Node> path) {
+        // The subtree of a proven node is not searched any further, except
+        // at the root until a child proves it
+        if (selected.isSolved() && selected != root) {
+            return selected;
+        }
+        Node child = selected.expand(table);
+        if (child == null) {
+            return selected;
+        }
+        // A node reused from the transposition table is not new
+        path.add(child);
+        if (child.getParent() == selected) {
+            seed(path);
+            nodeCount.incrementAndGet();
+            SearchStatistics stats = this.statistics;
+            if (stats != null) {
+                stats.recordNode();
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Prunes the least visited subtrees until the tree is back under the
+     * node limit. The subtrees of proven nodes go first, as they are never
+     * searched again. Deeper nodes go first among nodes with as many
+     * visits, so a subtree is pruned before its ancestors are considered. Only one
+     * thread evicts at a time, and the other workers of a tree-parallel
+     * search wait for it between iterations.
+     */
+    private void evict() {
+        if (evictionStalledRoot == root && nodeCount.get() < evictionRetryCount) {
+            return;
+        }
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        SearchEvents.EvictionEvent event = new SearchEvents.EvictionEvent();
+        event.begin();
+        evictionLock.writeLock().lock();
+        try {
+            Map<Node, int[]> sizes = new IdentityHashMap<Node, int[]>();
+            Map<Node, int[]> keys = new IdentityHashMap<Node, int[]>();
+            List<Node> candidates = new ArrayList<Node>();
+            int live = measure(root, 0, sizes, keys, candidates);
+            // Sorted on the keys taken while measuring, so the order holds
+            // still for the whole sort
+            candidates.sort(Comparator.comparingInt((Node node) -> keys.get(node)[0])
+                    .thenComparingInt(node -> keys.get(node)[1])
+                    .thenComparing(Comparator.comparingInt((Node node) -> keys.get(node)[2]).reversed()));
+
+            int target = (int) (nodeLimit * EVICTION_TARGET);
+            for (Node node : candidates) {
+                if (live <= target) {
+                    break;
+                }
+                int removed = sizes.get(node)[0] - 1;
+                if (removed <= 0) {
+                    continue;
+                }
+                node.prune();
+                sizes.get(node)[0] = 1;
+                for (Node ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                    int[] size = sizes.get(ancestor);
+                    if (size != null) {
+                        size[0] -= removed;
+                    }
+                }
+                live -= removed;
+            }
+
+            // Recount, and drop the pruned nodes from the transposition table
+            int before = nodeCount.get();
+            if (table != null) {
+                table.clear();
+            }
+            Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+            promote(root, seen);
+            nodeCount.set(seen.size());
+            evictedCount.addAndGet(Math.max(0, before - seen.size()));
+            // Walking the tree again on every iteration would free nothing
+            // either, until the tree has grown by a good part of the limit
+            if (seen.size() >= nodeLimit) {
+                evictionRetryCount = seen.size() + Math.max(1, nodeLimit / 8);
+                evictionStalledRoot = root;
+            } else {
+                evictionStalledRoot = null;
+            }
+            if (event.shouldCommit()) {
+                event.nodesBefore = before;
+                event.nodesAfter = seen.size();
+                event.nodeLimit = nodeLimit;
+                event.bytesFreed = (long) Math.max(0, before - seen.size()) * ESTIMATED_NODE_BYTES;
+                event.commit();
+            }
+        } finally {
+            evictionLock.writeLock().unlock();
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Measures the subtree sizes below a node, collecting the expanded
+     * nodes other than the root as eviction candidates together with their
+     * sort keys: unsolved, visits and depth
+     *
+     * @return the size of the subtree
+     */
+    private static int measure(Node node, int depth, Map<Node, int[]> sizes, Map<Node, int[]> keys,
+            List<Node> candidates) {
+        int[] size = new int[] { 1 };
+        sizes.put(node, size);
+        for (Node child : node.getChildren()) {
+            if (!sizes.containsKey(child)) {
+                size[0] += measure(child, depth + 1, sizes, keys, candidates);
+            }
+        }
+        if (depth > 0 && size[0] > 1) {
+            keys.put(node, new int[] { node.isSolved() ? 0 : 1, node.getVisits(), depth });
+            candidates.add(node);
+        }
+        return size[0];
+    }
+
+    /**
+     * Runs monte carlo iterations until one of the limits of the budget is
+     * reached or the root is proven by one of its children, then picks the
+     * best move. A position with a move in the opening book, if the book
+     * moves are played, is not searched at all. Pondering is stopped first
+     * and its iterations are kept.
+     *
+     * @param budget the limits of the search
+     * @throws IllegalStateException if the game at the root is over
+     */
+    public SearchResult search(SearchBudget budget) {
+        SearchEvents.SearchDecisionEvent event = new SearchEvents.SearchDecisionEvent();
+        event.begin();
+        SearchResult result = step(budget);
+        if (result == null) {
+            throw new IllegalStateException("The search found no move within its budget");
+        }
+        decide(event, result);
+        return result;
+    }
+
+    /**
+     * Runs one step of a search that may be spread over several calls,
+     * like {@link #search(SearchBudget)} but without recording the search
+     * in the statistics or emitting its decision event, which
+     * {@link #decide} does once the whole search is over.
+     *
+     * @param budget the limits of this step
+     * @return the result, or null if the root has no child yet
+     * @throws IllegalStateException if the game at the root is over
+     */
+    SearchResult step(SearchBudget budget) {
+        stopPondering();
+        if (root.getChildren().isEmpty() && !root.hasUntriedMoves()) {
+            root.updateProof();
+            throw new IllegalStateException("The game is over, there is no move to search for");
+        }
+        SearchResult result = bookResult();
+        if (result == null) {
+            result = searchTree(budget);
+        }
+        return result;
+    }
+
+    /**
+     * Records a finished search in the statistics and commits its decision
+     * event
+     *
+     * @param event  the decision event, begun when the search started
+     * @param result the result of the whole search
+     */
+    void decide(SearchEvents.SearchDecisionEvent event, SearchResult result) {
+        SearchStatistics stats = this.statistics;
+        if (stats != null) {
+            stats.recordSearch(result.getElapsedNanos(), nodeCount.get());
+        }
+        if (event.shouldCommit()) {
+            Node bestMove = result.getBestMove();
+            event.iterations = result.getIterations();
+            event.moveX = result.getMove()[0];
+            event.moveY = result.getMove()[1];
+            event.winRate = bestMove.getWinLossRate();
+            event.visits = bestMove.getVisits();
+            event.treeSize = nodeCount.get();
+            event.parallelism = parallelism.name();
+            event.threads = parallelism == Parallelism.NONE ? 1 : threads;
+            event.commit();
+        }
+    }
+
+    /**
+     * Runs the search of the configured parallelism mode
+     */
+    private SearchResult searchTree(SearchBudget budget) {
+        if (parallelism == Parallelism.ROOT && threads > 1) {
+            return searchRootParallel(budget);
+        }
+        if (parallelism == Parallelism.TREE && threads > 1) {
+            return searchTreeParallel(budget);
+        }
+        if (parallelism == Parallelism.LEAF && (threads > 1 || batchSize > 0)) {
+            return searchLeafParallel(budget);
+        }
+        long start = System.nanoTime();
+        long timeNanos = budget.getTimeNanos();
+        int iterations = 0;
+        Rollout rollout = rollout();
+        while (iterations < budget.getMaxIterations()
+                && nodeCount.get() < budget.getMaxNodes()
+                && System.nanoTime() - start < timeNanos
+                && !isDecided()) {
+            this.monteCarlo(rollout);
+            iterations++;
         }
+        return result(iterations, System.nanoTime() - start);
+    }
+
+    /**
+     * Searches the root position with one independent tree per worker and
+     * adds the statistics of their root children to the children of this
+     * tree's root. The iteration and node limits are shared out between
+     * the workers.
+     *
+     * @param budget the limits of the search
+     */
+    private SearchResult searchRootParallel(SearchBudget budget) {
+        long start = System.nanoTime();
+        List<Callable<MCTSTree>> workers = new ArrayList<Callable<MCTSTree>>();
+        // Iterations run per worker, which with batched playouts is fewer
+        // than the visits of its root
+        int[] workerIterations = new int[threads];
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            SearchBudget share = new SearchBudget(budget.getTimeMillis(),
+                    share(budget.getMaxIterations(), i), share(budget.getMaxNodes(), i));
+            int workerNodeLimit = Math.max(2, share(nodeLimit, i));
+            Long workerSeed = seeds == null ? null : seeds.nextLong();
+            workers.add(() -> {
+                MCTSTree worker = new MCTSTree();
+                worker.setRoot(new Node(null, root.getState()));
+                worker.setNodeLimit(workerNodeLimit);
+                if (workerSeed != null) {
+                    worker.setSeed(workerSeed);
+                }
+                worker.setEndgameEmpties(endgameEmpties);
+                if (batchSize > 0) {
+                    worker.setParallelism(Parallelism.LEAF, 1);
+                    worker.setBatchSize(batchSize);
+                }
+                worker.setStatisticsEnabled(statistics != null);
+                if (table != null) {
+                    worker.setTranspositionTable(new TranspositionTable(table.getCapacity()));
+                }
+                SearchResult result = worker.searchTree(share);
+                workerIterations[index] = result == null ? 0 : result.getIterations();
+                return worker;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        int iterations = 0;
+        try {
+            // Give the root a child for every move the workers may report
+            while (root.hasUntriedMoves()) {
+                List<Node> path = new ArrayList<Node>();
+                path.add(root);
+                expand(root, path);
+            }
+            for (Future<MCTSTree> future : pool.invokeAll(workers)) {
+                MCTSTree worker = future.get();
+                Node workerRoot = worker.getRoot();
+                evictedCount.addAndGet(worker.getEvictedCount());
+                SearchStatistics stats = this.statistics;
+                if (stats != null) {
+                    stats.add(worker.getStatistics());
+                }
+                merge(workerRoot, root);
+                for (Node workerChild : workerRoot.getChildren()) {
+                    int[] move = workerRoot.getMoveTo(workerChild);
+                    Node child = root.getChild(move[0], move[1]);
+                    if (child != null) {
+                        merge(workerChild, child);
+                        if (!child.isSolved()) {
+                            child.setProof(workerChild.getProof());
+                        }
+                    }
+                }
+            }
+            for (int workerIteration : workerIterations) {
+                iterations += workerIteration;
+            }
+            root.updateProof();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Root-parallel search was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Root-parallel search failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return result(iterations, System.nanoTime() - start);
+    }
+
+    /**
+     * Searches this tree with all workers at once. Every worker claims
+     * iterations from a shared counter until one of the limits is reached.
+     *
+     * @param budget the limits of the search
+     */
+    private SearchResult searchTreeParallel(SearchBudget budget) {
+        long start = System.nanoTime();
+        long timeNanos = budget.getTimeNanos();
+        AtomicInteger iterations = new AtomicInteger();
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for (Rollout workerRollout : workerRollouts()) {
+            workers.add(() -> {
+                Rollout rollout = workerRollout != null ? workerRollout : Rollout.current();
+                while (nodeCount.get() < budget.getMaxNodes()
+                        && System.nanoTime() - start < timeNanos
+                        && !isDecided()
+                        && iterations.getAndIncrement() < budget.getMaxIterations()) {
+                    monteCarloShared(rollout);
+                }
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Future<Void> future : pool.invokeAll(workers)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tree-parallel search was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Tree-parallel search failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        int ran = Math.min(iterations.get(), budget.getMaxIterations());
+        return result(ran, System.nanoTime() - start);
+    }
+
+    /**
+     * Searches this tree on the calling thread, handing the playouts of
+     * every iteration to the workers.
+     *
+     * @param budget the limits of the search
+     */
+    private SearchResult searchLeafParallel(SearchBudget budget) {
+        long start = System.nanoTime();
+        long timeNanos = budget.getTimeNanos();
+        int iterations = 0;
+        Rollout rollout = rollout();
+        Rollout[] workerRollouts = workerRollouts();
+        BatchRollout[] workerBatches = workerBatches(workerRollouts);
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            while (iterations < budget.getMaxIterations()
+                    && nodeCount.get() < budget.getMaxNodes()
+                    && System.nanoTime() - start < timeNanos
+                    && !isDecided()) {
+                monteCarloLeafParallel(pool, rollout, workerRollouts, workerBatches);
+                iterations++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Leaf-parallel search was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Leaf-parallel search failed", e.getCause());
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        return result(iterations, System.nanoTime() - start);
+    }
+
+    /**
+     * Checks whether the root is proven and has a child proving it, so
+     * searching on cannot change the best move
+     */
+    boolean isDecided() {
+        if (root.getChildren().isEmpty() && !root.hasUntriedMoves()) {
+            // The game is over, there is nothing left to search
+            root.updateProof();
+            return true;
+        }
+        Node.Proof proof = root.getProof();
+        if (proof == Node.Proof.UNKNOWN) {
+            return false;
+        }
+        if (proof == Node.Proof.LOSS) {
+            // Every move loses, once they all have a child
+            return !root.hasUntriedMoves();
+        }
+        Node.Proof needed = proof == Node.Proof.WIN ? Node.Proof.LOSS : Node.Proof.DRAW;
+        for (Node child : root.getChildren()) {
+            if (child.getProof() == needed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Result with the best child of the root and the move leading to it,
+     * or null if the search ran out of time before the root got a child
+     */
+    private SearchResult result(int iterations, long elapsedNanos) {
+        if (root.getChildren().isEmpty()) {
+            return null;
+        }
+        Node bestChild = root.getBestChild();
+        return new SearchResult(bestChild, root.getMoveTo(bestChild), iterations, elapsedNanos);
+    }
+
+    /**
+     * Share of a limit for one worker, spreading the remainder over the
+     * first workers
+     */
+    private int share(int limit, int worker) {
+        if (limit == Integer.MAX_VALUE) {
+            return limit;
+        }
+        return limit / threads + (worker < limit % threads ? 1 : 0);
+    }
+
+    /**
+     * Adds the statistics of one node to another
+     */
+    private static void merge(Node from, Node to) {
+        to.setVisits(to.getVisits() + from.getVisits());
+        to.setWins(to.getWins() + from.getWins());
+        to.setLosses(to.getLosses() + from.getLosses());
     }
 
     /**
      * gets the best move
      */
     public Node getBestMove() {
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        this.monteCarlo();
-        return root.getBestChild();
+        return search(SearchBudget.ofIterations(DEFAULT_ITERATIONS)).getBestMove();
+    }
+
+    /**
+     * Collects the nodes in the subtree of a node, counting nodes shared
+     * between parents once
+     */
+    private static void countNodes(Node node, Set<Node> seen) {
+        if (seen.add(node)) {
+            for (Node child : node.getChildren()) {
+                countNodes(child, seen);
+            }
+        }
     }
 
     public static void main(String[] args) {
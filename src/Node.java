@@ -1,23 +1,57 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.random.RandomGenerator;
 import java.util.stream.Collectors;
 
 /**
  * Represents a Node in the game tree for monte carlo tree search.
+ * The statistics are updated atomically and the children are published
+ * copy-on-write, so many threads can search the same tree.
  *
  * @author emsquellen
  */
 public class Node {
+    /**
+     * Proven result of a position for the player to move
+     */
+    public enum Proof {
+        /** Not proven yet */
+        UNKNOWN,
+        /** The player to move wins with perfect play */
+        WIN,
+        /** The player to move loses whatever they play */
+        LOSS,
+        /** Perfect play by both players draws */
+        DRAW
+    }
+
 
-    private final Node parent;
+    private static final double EXPLORATION = Math.sqrt(2);
+
+    private static final AtomicIntegerFieldUpdater<Node> VISITS = AtomicIntegerFieldUpdater
+            .newUpdater(Node.class, "visits");
+    private static final AtomicIntegerFieldUpdater<Node> WINS = AtomicIntegerFieldUpdater
+            .newUpdater(Node.class, "wins");
+    private static final AtomicIntegerFieldUpdater<Node> LOSSES = AtomicIntegerFieldUpdater
+            .newUpdater(Node.class, "losses");
+    private static final AtomicIntegerFieldUpdater<Node> VIRTUAL_LOSSES = AtomicIntegerFieldUpdater
+            .newUpdater(Node.class, "virtualLosses");
+
+    private volatile Node parent;
     private final State state;
-    private boolean isTerminal;
-    private List<Node> children;
-    private int visits;
-    private int wins;
-    private int losses;
+    private volatile boolean isTerminal;
+    private volatile List<Node> children;
+    // Legal moves that have no child yet, and whether the pass still has none
+    private volatile long untriedMoves;
+    private volatile boolean untriedPass;
+    private volatile int visits;
+    private volatile int wins;
+    private volatile int losses;
+    private volatile int virtualLosses;
+    private volatile Proof proof;
 
     /**
      * Constructor for a node.
@@ -30,9 +64,11 @@ public class Node {
         this.state = state;
         this.isTerminal = true;
         this.children = new ArrayList<Node>();
+        resetUntriedMoves();
         this.visits = 0;
         this.wins = 0;
         this.losses = 0;
+        this.proof = Proof.UNKNOWN;
     }
 
     /**
@@ -49,9 +85,11 @@ public class Node {
         this.state = state;
         this.isTerminal = true;
         this.children = new ArrayList<Node>();
+        resetUntriedMoves();
         this.visits = 0;
         this.wins = 0;
         this.losses = 0;
+        this.proof = Proof.UNKNOWN;
     }
 
     /**
@@ -64,13 +102,41 @@ public class Node {
         this.state = node.state;
         this.isTerminal = node.isTerminal;
         this.children = node.children;
+        this.untriedMoves = node.untriedMoves;
+        this.untriedPass = node.untriedPass;
         this.visits = node.visits;
         this.wins = node.wins;
         this.losses = node.losses;
+        this.proof = node.proof;
+    }
+
+    /**
+     * Constructor for a node restored from a {@link TreeSnapshot}, with its
+     * untried moves and statistics as they were saved. The children are
+     * added afterwards.
+     *
+     * @param state        the state of the node
+     * @param untriedMoves the legal moves that have no child yet
+     * @param untriedPass  whether the pass has no child yet
+     * @param visits       the visits of the node
+     * @param wins         the wins of the node
+     * @param losses       the losses of the node
+     * @param proof        the proven result of the node
+     */
+    Node(State state, long untriedMoves, boolean untriedPass, int visits, int wins, int losses, Proof proof) {
+        this.state = state;
+        this.isTerminal = true;
+        this.children = new ArrayList<Node>();
+        this.untriedMoves = untriedMoves;
+        this.untriedPass = untriedPass;
+        this.visits = visits;
+        this.wins = wins;
+        this.losses = losses;
+        this.proof = proof;
     }
 
     /**
-     * Getter for the parent node.
+     * Getter for the parent node, the node this one was first reached from.
      * 
      * @return Node
      */
@@ -78,6 +144,16 @@ public class Node {
         return parent;
     }
 
+    /**
+     * Setter for the parent node. Setting it to null cuts the node loose
+     * from the rest of the tree.
+     * 
+     * @param parent
+     */
+    public void setParent(Node parent) {
+        this.parent = parent;
+    }
+
     /**
      * Getter for the state of the node.
      * 
@@ -87,6 +163,75 @@ public class Node {
         return state;
     }
 
+    /**
+     * Getter for the proven result of the node for its player to move.
+     * 
+     * @return Proof
+     */
+    public Proof getProof() {
+        return proof;
+    }
+
+    /**
+     * Setter for the proven result of the node, for results found outside
+     * the tree such as by a search of another tree.
+     * 
+     * @param proof the proven result for the player to move
+     */
+    public void setProof(Proof proof) {
+        this.proof = proof;
+    }
+
+    /**
+     * Checks whether the result of the node is proven.
+     * 
+     * @return boolean
+     */
+    public boolean isSolved() {
+        return this.proof != Proof.UNKNOWN;
+    }
+
+    /**
+     * Tries to prove the node from the game or its children, with minimax
+     * rules: the node is won if a child is lost for the opponent, and lost
+     * or drawn once every move has a child and all of them are proven.
+     * A finished game is proven by its score.
+     * 
+     * @return boolean whether the node is proven
+     */
+    public boolean updateProof() {
+        if (this.proof != Proof.UNKNOWN) {
+            return true;
+        }
+        // Read the untried moves first: a child is published before its
+        // move stops being untried, so no child can be missed below
+        boolean untried = hasUntriedMoves();
+        List<Node> children = this.children;
+        if (!untried && children.isEmpty()) {
+            // The game is over
+            Board board = this.state.getBoard();
+            int score = board.getScore(this.state.getPlayer()) - board.getScore(this.state.getOpponent());
+            this.proof = score > 0 ? Proof.WIN : score < 0 ? Proof.LOSS : Proof.DRAW;
+            return true;
+        }
+        boolean allProven = !untried;
+        boolean draw = false;
+        for (Node child : children) {
+            Proof childProof = child.proof;
+            if (childProof == Proof.LOSS) {
+                this.proof = Proof.WIN;
+                return true;
+            }
+            allProven &= childProof != Proof.UNKNOWN;
+            draw |= childProof == Proof.DRAW;
+        }
+        if (allProven) {
+            this.proof = draw ? Proof.DRAW : Proof.LOSS;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Getter for the terminal status of the node.
      * 
@@ -123,14 +268,66 @@ public class Node {
         this.children = children;
     }
 
+    /**
+     * Drops all children of the node, turning it back into a leaf that can
+     * be expanded again. The node keeps its own statistics, which already
+     * include every playout that went through the dropped subtree.
+     */
+    public synchronized void prune() {
+        // The untried moves come back before the children go, so the node
+        // never looks fully expanded without children to a reader
+        resetUntriedMoves();
+        this.isTerminal = true;
+        this.children = new ArrayList<Node>();
+    }
+
+    /**
+     * Getter for the bitboard of legal moves that have no child yet.
+     * 
+     * @return long
+     */
+    public long getUntriedMoves() {
+        return this.untriedMoves;
+    }
+
+    /**
+     * Checks whether the pass of the node has no child yet.
+     * 
+     * @return boolean
+     */
+    public boolean isPassUntried() {
+        return this.untriedPass;
+    }
+
+    /**
+     * Checks whether the node still has a move, or a pass, without a child.
+     * 
+     * @return boolean
+     */
+    public boolean hasUntriedMoves() {
+        return this.untriedMoves != 0 || this.untriedPass;
+    }
+
+    /**
+     * Marks every legal move of the position, or the pass if there is none
+     * and the game is not over, as untried.
+     */
+    private void resetUntriedMoves() {
+        Board board = this.state.getBoard();
+        this.untriedMoves = board.getMoveMask(this.state.getPlayer());
+        this.untriedPass = this.untriedMoves == 0 && board.getMoveMask(this.state.getOpponent()) != 0;
+    }
+
     /**
      * Adds a child to the node.
      * 
      * @param child
      * @return boolean
      */
-    public boolean addChild(Node child) {
-        this.children.add(child);
+    public synchronized boolean addChild(Node child) {
+        List<Node> newChildren = new ArrayList<Node>(this.children);
+        newChildren.add(child);
+        this.children = newChildren;
         this.isTerminal = false;
         return true;
     }
@@ -141,14 +338,55 @@ public class Node {
      * @param child
      * @return boolean
      */
-    public boolean removeChild(Node child) {
-        this.children.remove(child);
-        if (this.children.size() == 0) {
+    public synchronized boolean removeChild(Node child) {
+        List<Node> newChildren = new ArrayList<Node>(this.children);
+        newChildren.remove(child);
+        this.children = newChildren;
+        if (newChildren.size() == 0) {
             this.isTerminal = true;
         }
         return true;
     }
 
+    /**
+     * Gets the child of the node reached by a move. A move of (-1, -1)
+     * gets the child reached by passing.
+     * 
+     * @param x the x coordinate of the move
+     * @param y the y coordinate of the move
+     * @return Node, or null if there is no such child
+     */
+    public Node getChild(int x, int y) {
+        // Compare positions, since a shared child may have been reached
+        // through a different move first
+        Board board = new Board(this.state.getBoard());
+        board.makeMove(x, y, this.state.getPlayer());
+        for (Node child : this.children) {
+            if (child.state.getPlayer() == this.state.getOpponent()
+                    && child.state.getBoard().equals(board)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the move that leads from this node to one of its children. A
+     * child shared between parents keeps the move it was first reached
+     * with, so this can differ from the child's own move.
+     * 
+     * @param child the child
+     * @return int[] the move (x, y), or (-1, -1) for a pass
+     */
+    public int[] getMoveTo(Node child) {
+        long placed = this.state.getBoard().getEmpty() & ~child.state.getBoard().getEmpty();
+        if (placed == 0) {
+            return new int[] { -1, -1 };
+        }
+        int square = Long.numberOfTrailingZeros(placed);
+        return new int[] { square >>> 3, square & 7 };
+    }
+
     /**
      * Amount of children of the node.
      * 
@@ -180,14 +418,14 @@ public class Node {
      * Increments the visits of the node.
      */
     public void incrementVisits() {
-        this.visits++;
+        VISITS.incrementAndGet(this);
     }
 
     /**
      * Decrements the visits of the node.
      */
     public void decrementVisits() {
-        this.visits--;
+        VISITS.decrementAndGet(this);
     }
 
     /**
@@ -212,14 +450,14 @@ public class Node {
      * Increments the wins of the node.
      */
     public void incrementWins() {
-        this.wins++;
+        WINS.incrementAndGet(this);
     }
 
     /**
      * Decrements the wins of the node.
      */
     public void decrementWins() {
-        this.wins--;
+        WINS.decrementAndGet(this);
     }
 
     /**
@@ -244,14 +482,24 @@ public class Node {
      * Increments the losses of the node.
      */
     public void incrementLosses() {
-        this.losses++;
+        LOSSES.incrementAndGet(this);
     }
 
     /**
      * Decrements the losses of the node.
      */
     public void decrementLosses() {
-        this.losses--;
+        LOSSES.decrementAndGet(this);
+    }
+
+    /**
+     * Getter for the virtual losses of the node, one for every thread that
+     * is currently searching below it.
+     * 
+     * @return int
+     */
+    public int getVirtualLosses() {
+        return this.virtualLosses;
     }
 
     /**
@@ -265,28 +513,76 @@ public class Node {
     }
 
     /**
-     * Gets a random child of the node.
+     * Gets a random child of the node, using the random source of the
+     * thread's {@link Rollout}.
      * 
      * @return Node
      */
     public Node getRandomChild() {
-        Random rand = new Random();
+        return getRandomChild(Rollout.current().getRandom());
+    }
+
+    /**
+     * Gets a random child of the node.
+     * 
+     * @param random the random source
+     * @return Node
+     */
+    public Node getRandomChild(RandomGenerator random) {
+        List<Node> children = this.children;
         // Get a random number between 0 and the number of children
-        int index = rand.nextInt(this.children.size());
+        int index = random.nextInt(children.size());
         // Return the child at that index
-        return this.children.get(index);
+        return children.get(index);
+    }
+
+    /**
+     * Gets the child of the node with the highest UCB1 value.
+     * Unvisited children are always tried first.
+     * 
+     * @return Node
+     */
+    public Node getUctChild() {
+        // Virtual losses count as visits that were lost
+        double logVisits = Math.log(Math.max(1, this.visits + this.virtualLosses));
+        Node bestChild = null;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (Node child : this.children) {
+            // A child won for the opponent is never worth playing
+            if (child.proof == Proof.WIN) {
+                continue;
+            }
+            int childVisits = child.visits + child.virtualLosses;
+            double value = childVisits == 0 ? Double.POSITIVE_INFINITY
+                    : (double) child.wins / childVisits + EXPLORATION * Math.sqrt(logVisits / childVisits);
+            if (value > bestValue) {
+                bestValue = value;
+                bestChild = child;
+            }
+        }
+        return bestChild;
     }
 
     /**
      * Gets the child of the node with the highest win loss ratio.
      * 
      * @return Node
+     * @throws IllegalStateException if the node has no children
      */
     public Node getBestChild() {
-        // Get the child with the highest win loss ratio
+        // Get a proven win if there is one, else the child with the highest
+        // win loss ratio, proven losses last
         return this.children.stream()
-                .max((n1, n2) -> Double.compare(n1.getWinLossRate(), n2.getWinLossRate()))
-                .get();
+                .max(Comparator.comparingInt(Node::getProofRank).thenComparingDouble(Node::getWinLossRate))
+                .orElseThrow(() -> new IllegalStateException("Node has no children: " + moveString()));
+    }
+
+    /**
+     * Rank of the proof of a child for the player choosing between them:
+     * proven wins first, proven losses last
+     */
+    private int getProofRank() {
+        return this.proof == Proof.LOSS ? 2 : this.proof == Proof.WIN ? 0 : 1;
     }
 
     /**
@@ -300,181 +596,328 @@ public class Node {
                 : Arrays.toString(this.state.getMove());
     }
 
+    // Methods for monte carlo tree search
+
     /**
-     * Gets a random child of the node.
+     * Selects a leaf of the tree by descending through the children with
+     * the highest UCB1 value.
      * 
-     * @param items the items to choose from
-     * @return T
+     * @return Node
      */
-    private static <T> T getRandomListElement(List<T> items) {
-        return items.get(new Random().nextInt(items.size()));
+    public Node select() {
+        return descend(null, false);
     }
 
     /**
-     * Getter for the move of the node's state.
+     * Selects a leaf like {@link #select()}, recording every node on the
+     * way, this node first. Once nodes are shared through a
+     * {@link TranspositionTable} a node can have several parents, so
+     * backpropagation has to follow this path instead of parent links.
      * 
-     * @return int[]
+     * @param path the list to add the nodes on the way to
+     * @return Node
      */
-    private int[] getMove() {
-        return this.state.getMove();
+    public Node select(List<Node> path) {
+        return descend(path, false);
     }
 
-    // Methods for monte carlo tree search
+    /**
+     * Selects a leaf like {@link #select()}, adding a virtual loss to every
+     * node on the way so that concurrent searches spread over different
+     * branches. The virtual losses must be removed again with
+     * {@link #removeVirtualLoss()} on the returned node.
+     * 
+     * @return Node
+     */
+    public Node selectWithVirtualLoss() {
+        return descend(null, true);
+    }
 
     /**
-     * Selects a random node from the tree.
+     * Selects a leaf like {@link #selectWithVirtualLoss()}, recording every
+     * node on the way like {@link #select(List)}. The virtual losses must be
+     * removed again with {@link #removeVirtualLoss(List)}.
      * 
+     * @param path the list to add the nodes on the way to
      * @return Node
      */
-    public Node select() {
+    public Node selectWithVirtualLoss(List<Node> path) {
+        return descend(path, true);
+    }
+
+    /**
+     * Removes the virtual loss added by {@link #selectWithVirtualLoss()}
+     * from this node and all of its ancestors.
+     */
+    public void removeVirtualLoss() {
+        for (Node currentNode = this; currentNode != null; currentNode = currentNode.parent) {
+            VIRTUAL_LOSSES.decrementAndGet(currentNode);
+        }
+    }
+
+    /**
+     * Removes the virtual loss added by {@link #selectWithVirtualLoss(List)}
+     * from every node on the path.
+     * 
+     * @param path the nodes passed during selection
+     */
+    public static void removeVirtualLoss(List<Node> path) {
+        for (Node node : path) {
+            VIRTUAL_LOSSES.decrementAndGet(node);
+        }
+    }
+
+    /**
+     * Descends through the children with the highest UCB1 value until a
+     * leaf is reached.
+     */
+    private Node descend(List<Node> path, boolean virtualLoss) {
         Node currentNode = this;
-        // Get all moves from the children of the node using a stream
-        List<int[]> moves = currentNode.children
-                .stream()
-                .map(Node::getMove)
-                .collect(Collectors.toList());
-        List<Node> expandableChildNodes = new ArrayList<Node>();
-
-        // For each move of the childeren of the node
-        currentNode.state.getMoves().forEach(possibleMove -> {
-            // If the move is not in the list of moves
-            if (!moves.contains(possibleMove)) {
-                // Add the node to the list of expandable nodes
-                expandableChildNodes.add(currentNode);
+        while (true) {
+            if (path != null) {
+                path.add(currentNode);
+            }
+            if (virtualLoss) {
+                VIRTUAL_LOSSES.incrementAndGet(currentNode);
             }
-        });
-        // If there are expandable nodes, get a random node from the list.
-        // Else, return null
-        return expandableChildNodes.size() > 0 ? getRandomListElement(expandableChildNodes) : null;
+            // Stop at the first node that can still grow a child, or below
+            // the start at the first one whose result is already known
+            if (currentNode.hasUntriedMoves() || currentNode.isTerminal()
+                    || (currentNode != this && currentNode.isSolved())) {
+                return currentNode;
+            }
+            Node child = currentNode.getUctChild();
+            // The children may have been pruned since the check above, or
+            // be proven losses for this node
+            if (child == null) {
+                return currentNode;
+            }
+            currentNode = child;
+        }
     }
 
     /**
-     * Expands the node.
+     * Expands the node by one child, for one of its untried moves.
+     * Expansion is serialized per node.
      * 
-     * @return Node
+     * @return Node the new child, or null if every move has a child
      */
-    public void expand() {
-        List<int[]> moves = state.getMoves();
-
-        // For each possible legal move
-        for (int i = 0; i < moves.size(); i++) {
-            // Get the move
-            int[] move = moves.get(i);
-            // Clone the current board
-            Board newBoard = new Board(state.getBoard());
-            // Make the move on the board
-            newBoard.makeMove(move[0], move[1], state.getPlayer());
-
-            // Create a new node with the new board for the opponent
-            Node child = new Node(
-                    this, newBoard, state.getOpponent(), move[0], move[1]);
-            // Skip the node if it is already in the children of the node
-            if (this.children.contains(child)) {
-                continue;
-            }
-            // Add the node to the children of the node
-            this.addChild(child);
+    public Node expand() {
+        return expand(null);
+    }
+
+    /**
+     * Expands the node by one child, reusing the node of the position if it
+     * is already in the transposition table.
+     * 
+     * @param table the transposition table, or null to always create nodes
+     * @return Node the new child, or null if every move has a child
+     */
+    public synchronized Node expand(TranspositionTable table) {
+        long moves = this.untriedMoves;
+        if (moves == 0 && !this.untriedPass) {
+            return null;
+        }
+        // Clone the current board
+        Board newBoard = new Board(state.getBoard());
+        int x = -1;
+        int y = -1;
+        // Make the move on the board, a player without moves passes
+        if (moves != 0) {
+            int square = Long.numberOfTrailingZeros(moves);
+            x = square >>> 3;
+            y = square & 7;
+            newBoard.makeMove(x, y, state.getPlayer());
+        }
+
+        // Create a new node with the new board for the opponent
+        Node child = new Node(this, newBoard, state.getOpponent(), x, y);
+        if (table != null) {
+            child = table.putIfAbsent(child);
         }
+        // Publish the child before the move stops being untried
+        List<Node> newChildren = new ArrayList<Node>(this.children);
+        newChildren.add(child);
+        this.children = newChildren;
+        this.isTerminal = false;
+        this.untriedMoves = moves & (moves - 1);
+        this.untriedPass = false;
+        return child;
+    }
+
+    /**
+     * Gets the node a playout from this node starts from: a random child
+     * if the node has been expanded, else the node itself.
+     * 
+     * @return Node
+     */
+    public Node getPlayoutStart() {
+        return getPlayoutStart(Rollout.current().getRandom());
+    }
+
+    /**
+     * Gets the node a playout from this node starts from: a random child
+     * if the node has been expanded, else the node itself.
+     * 
+     * @param random the random source
+     * @return Node
+     */
+    public Node getPlayoutStart(RandomGenerator random) {
+        return this.children.isEmpty() ? this : getRandomChild(random);
     }
 
     /**
      * Simulates a random game from this node.
-     * Using random moves.
+     * The game is played out on a scratch board by the thread's
+     * {@link Rollout}, so no nodes are added to the tree.
      */
     public Outcome playout() {
-        // Get a random node from the children of the node
-        Node currentNode = getRandomChild();
-        int newNodePlayer = currentNode.state.getOpponent();
-
-        // While the game is not over
-        while (!currentNode.state.getBoard().gameOver()) {
-            // Get all legal moves from the current node
-            List<int[]> moves = currentNode.state
-                    .getBoard()
-                    .getAllMoves(newNodePlayer);
-            // Clone the board
-            Board newBoard = new Board(currentNode.state.getBoard());
-            int[] move;
-            Node childNode;
-            // If there are moves
-            if (moves.size() > 0) {
-                // Get a random move
-                move = getRandomListElement(moves);
-                // Make the move on the board
-                newBoard.makeMove(move[0], move[1], newNodePlayer);
-                // Create a new node with the new board for the opponent
-                childNode = new Node(
-                        currentNode, newBoard, newNodePlayer, move[0], move[1]);
-                // Skip the node if it is already in the children of the node
-                if (this.children.contains(childNode)) {
-                    continue;
-                }
-                // Add the node to the children of the node
-                currentNode.addChild(childNode);
-                // Set the current node to the new node
-                currentNode = childNode;
-                // Set the new node player to the opponent of the new node
-                newNodePlayer = currentNode.state.getOpponent();
-            } else {
-                // If there are no moves, skip the node
-                newNodePlayer = currentNode.state.getPlayer();
-            }
-        }
+        return playout(Rollout.current());
+    }
 
-        // Return the outcome of the game
+    /**
+     * Simulates a random game from this node with the given rollout
+     * engine, so no nodes are added to the tree.
+     * 
+     * @param rollout the rollout engine, which also picks the start node
+     */
+    public Outcome playout(Rollout rollout) {
+        Node startNode = getPlayoutStart(rollout.getRandom());
+        int winner = rollout.play(
+                startNode.state.getBoard(), startNode.state.getPlayer());
+        return outcome(winner, startNode);
+    }
 
-        // Retrieve the scores of the game
-        int myScore = currentNode.state.getBoard()
-                .getScore(this.state.getPlayer());
-        int oppScore = currentNode.state.getBoard()
-                .getScore(this.state.getOpponent());
+    /**
+     * Solves the position of this node exactly instead of playing it out.
+     * The result is kept as the proof of the node, so a proven node is
+     * never solved twice.
+     * 
+     * @param solver the endgame solver
+     * @return Outcome the result under perfect play, as seen by this node
+     */
+    public Outcome solve(EndgameSolver solver) {
+        if (this.proof == Proof.UNKNOWN) {
+            int winner = solver.solveWinner(state.getBoard(), state.getPlayer());
+            this.proof = winner == state.getPlayer() ? Proof.WIN
+                    : winner == state.getOpponent() ? Proof.LOSS : Proof.DRAW;
+        }
+        return outcome(this.proof == Proof.WIN ? state.getPlayer()
+                : this.proof == Proof.LOSS ? state.getOpponent() : 0, this);
+    }
 
-        if (myScore > oppScore) {
+    /**
+     * Outcome of a game won by the given player, as seen by this node.
+     */
+    private Outcome outcome(int winner, Node startNode) {
+        if (winner == this.state.getPlayer()) {
             // If the player won
-            return new Outcome(Outcome.OutcomeType.WIN, currentNode);
-        } else if (myScore < oppScore) {
+            return new Outcome(Outcome.OutcomeType.WIN, startNode);
+        } else if (winner == this.state.getOpponent()) {
             // If the player lost
-            return new Outcome(Outcome.OutcomeType.LOSS, currentNode);
-        } else if (myScore == oppScore) {
-            // If the game was a draw
-            return new Outcome(Outcome.OutcomeType.DRAW, currentNode);
+            return new Outcome(Outcome.OutcomeType.LOSS, startNode);
         } else {
-            // If the game is invalid
-            return new Outcome(Outcome.OutcomeType.UNKNOWN, currentNode);
+            // If the game was a draw
+            return new Outcome(Outcome.OutcomeType.DRAW, startNode);
         }
     }
 
     /**
      * Backpropagates the result of a playout.
      * 
-     * @param outcome the outcome of the playout
+     * @param outcome the outcome of the playout, as seen by this node
      */
     public void backpropagate(Outcome outcome) {
         // Retrieve the terminal node of the outcome
         Node currentNode = outcome.getTerminalNode();
-        // If the outcome is a draw or unknown, skip the node
-        if (currentNode == null || outcome.getType() == Outcome.OutcomeType.UNKNOWN
-                || outcome.getType() == Outcome.OutcomeType.DRAW) {
+        // If the outcome is unknown, skip the node
+        if (currentNode == null || outcome.getType() == Outcome.OutcomeType.UNKNOWN) {
+            return;
+        }
+        // Translate the outcome into the winning player, 0 for a draw
+        int winner = outcome.getType() == Outcome.OutcomeType.WIN ? this.state.getPlayer()
+                : outcome.getType() == Outcome.OutcomeType.LOSS ? this.state.getOpponent() : 0;
+        currentNode.backpropagate(1, winner == 1 ? 1 : 0, winner == 2 ? 1 : 0);
+    }
+
+    /**
+     * Backpropagates the result of a playout along the path recorded by
+     * {@link #select(List)}. The node the playout started from is appended
+     * to the path when it is not on it yet.
+     * 
+     * @param outcome the outcome of the playout, as seen by this node
+     * @param path    the nodes passed during selection
+     */
+    public void backpropagate(Outcome outcome, List<Node> path) {
+        Node terminalNode = outcome.getTerminalNode();
+        // If the outcome is unknown, skip the node
+        if (terminalNode == null || outcome.getType() == Outcome.OutcomeType.UNKNOWN) {
             return;
         }
+        if (path.get(path.size() - 1) != terminalNode) {
+            path.add(terminalNode);
+        }
+        // Translate the outcome into the winning player, 0 for a draw
+        int winner = outcome.getType() == Outcome.OutcomeType.WIN ? this.state.getPlayer()
+                : outcome.getType() == Outcome.OutcomeType.LOSS ? this.state.getOpponent() : 0;
+        backpropagate(path, 1, winner == 1 ? 1 : 0, winner == 2 ? 1 : 0);
+    }
+
+    /**
+     * Backpropagates the combined result of several playouts to every node
+     * on a path. Every node counts the result for the player who moved into
+     * it.
+     * 
+     * @param path        the nodes to update
+     * @param playouts    the number of playouts
+     * @param winsPlayer1 the number of playouts won by player 1
+     * @param winsPlayer2 the number of playouts won by player 2
+     */
+    public static void backpropagate(List<Node> path, int playouts, int winsPlayer1, int winsPlayer2) {
+        for (Node node : path) {
+            node.update(playouts, winsPlayer1, winsPlayer2);
+        }
+        // Carry proofs up from the end of the path as far as they reach
+        int i = path.size() - 1;
+        while (i >= 0 && path.get(i).updateProof()) {
+            i--;
+        }
+    }
+
+    /**
+     * Backpropagates the combined result of playouts that started from this
+     * node, updating it and all of its ancestors in one pass.
+     * Every node counts the result for the player who moved into it.
+     * 
+     * @param playouts    the number of playouts
+     * @param winsPlayer1 the number of playouts won by player 1
+     * @param winsPlayer2 the number of playouts won by player 2
+     */
+    public void backpropagate(int playouts, int winsPlayer1, int winsPlayer2) {
         // While the current node is not the root node
-        while (currentNode != null) {
-            // Update the visit count of the node
-            currentNode.incrementVisits();
-            // If the outcome is a win
-            if (outcome.getType() == Outcome.OutcomeType.WIN) {
-                // Update the win count of the node
-                currentNode.incrementWins();
-                // If the outcome is a loss
-            } else if (outcome.getType() == Outcome.OutcomeType.LOSS) {
-                // Update the loss count of the node
-                currentNode.incrementLosses();
-            }
-            // Set the current node to the parent of the current node
-            currentNode = currentNode.parent;
+        for (Node currentNode = this; currentNode != null; currentNode = currentNode.parent) {
+            currentNode.update(playouts, winsPlayer1, winsPlayer2);
+        }
+        // Carry proofs up as far as they reach
+        Node provenNode = this;
+        while (provenNode != null && provenNode.updateProof()) {
+            provenNode = provenNode.parent;
         }
     }
 
+    /**
+     * Adds the result of playouts to the statistics of this node, counted
+     * for the player who moved into it.
+     */
+    private void update(int playouts, int winsPlayer1, int winsPlayer2) {
+        // Update the visit count of the node
+        VISITS.addAndGet(this, playouts);
+        boolean player1Moved = this.state.getOpponent() == 1;
+        // Update the win and loss counts of the node
+        WINS.addAndGet(this, player1Moved ? winsPlayer1 : winsPlayer2);
+        LOSSES.addAndGet(this, player1Moved ? winsPlayer2 : winsPlayer1);
+    }
+
     /**
      * String representation of the node.
      * 
@@ -523,4 +966,14 @@ public class Node {
     public boolean equals(Object obj) {
         return obj instanceof Node && this.state.equals(((Node) obj).state);
     }
+
+    /**
+     * Hash code method for the node, consistent with equals.
+     * 
+     * @return int
+     */
+    @Override
+    public int hashCode() {
+        return this.state.hashCode();
+    }
 }
\ No newline at end of file
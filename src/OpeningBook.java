@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only opening book, memory-mapped from a file written by
+ * {@link OpeningBookBuilder}. The file holds one fixed-size record per
+ * position, sorted by position key, so a lookup is a binary search over
+ * the mapped pages without reading the whole file.
+ *
+ * A record keeps the node statistics of the position and, for positions
+ * that were searched themselves, the best move found.
+ *
+ * @author emsquellen
+ */
+public class OpeningBook {
+    static final int MAGIC = 0x4D435442;
+    static final int VERSION = 1;
+    // Magic, version, record count and a reserved int
+    static final int HEADER_BYTES = 16;
+    // Key, black, white, visits, wins, losses, player, move and padding
+    static final int RECORD_BYTES = 40;
+    static final int KEY = 0;
+    static final int BLACK = 8;
+    static final int WHITE = 16;
+    static final int VISITS = 24;
+    static final int WINS = 28;
+    static final int LOSSES = 32;
+    static final int PLAYER = 36;
+    static final int MOVE = 37;
+    // Move byte of a pass, and of a position without a book move
+    static final byte PASS = -1;
+    static final byte NO_MOVE = -2;
+
+    private final ByteBuffer records;
+    private final int size;
+
+    private OpeningBook(ByteBuffer records, int size) {
+        this.records = records;
+        this.size = size;
+    }
+
+    /**
+     * Maps an opening book file into memory.
+     *
+     * @param path the book file
+     * @return OpeningBook
+     * @throws IOException if the file cannot be read or is not a book
+     */
+    public static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Not an opening book: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not an opening book of version " + VERSION + ": " + path);
+            }
+            int size = buffer.getInt(8);
+            if (HEADER_BYTES + (long) size * RECORD_BYTES != length) {
+                throw new IOException("Truncated opening book: " + path);
+            }
+            return new OpeningBook(buffer.slice(HEADER_BYTES, size * RECORD_BYTES), size);
+        }
+    }
+
+    /**
+     * Getter for the number of positions in the book.
+     *
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether a position is in the book.
+     *
+     * @param state the position
+     * @return boolean
+     */
+    public boolean contains(State state) {
+        return find(state) >= 0;
+    }
+
+    /**
+     * Gets the book move of a position.
+     *
+     * @param state the position
+     * @return int[] the move (x, y), (-1, -1) for a pass, or null if the
+     *         book has no move for the position
+     */
+    public int[] getMove(State state) {
+        int record = find(state);
+        if (record < 0) {
+            return null;
+        }
+        byte move = records.get(record + MOVE);
+        if (move == NO_MOVE) {
+            return null;
+        }
+        return move == PASS ? new int[] { -1, -1 } : new int[] { move >>> 3, move & 7 };
+    }
+
+    /**
+     * Copies the statistics of a node's position from the book into the
+     * node, for a node without a parent such as a new root. Nodes inside a
+     * tree are seeded by {@link MCTSTree} together with their ancestors.
+     *
+     * @param node the node to seed
+     * @return boolean whether the position was in the book
+     */
+    public boolean seed(Node node) {
+        int[] stats = getStatistics(node.getState());
+        if (stats == null) {
+            return false;
+        }
+        node.setVisits(stats[0]);
+        node.setWins(stats[1]);
+        node.setLosses(stats[2]);
+        return true;
+    }
+
+    /**
+     * Gets the statistics of a position from the book.
+     *
+     * @param state the position
+     * @return int[] the visits, wins and losses, counted for the player who
+     *         moved into the position, or null if it is not in the book
+     */
+    public int[] getStatistics(State state) {
+        int record = find(state);
+        if (record < 0) {
+            return null;
+        }
+        return new int[] { records.getInt(record + VISITS), records.getInt(record + WINS),
+                records.getInt(record + LOSSES) };
+    }
+
+    /**
+     * Binary search for the record of a position.
+     *
+     * @return the byte offset of the record, or -1 if it is not there
+     */
+    private int find(State state) {
+        long key = state.getKey();
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = records.getLong(mid * RECORD_BYTES + KEY);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                // Positions with the same key lie next to each other
+                while (mid > 0 && records.getLong((mid - 1) * RECORD_BYTES + KEY) == key) {
+                    mid--;
+                }
+                for (; mid < size && records.getLong(mid * RECORD_BYTES + KEY) == key; mid++) {
+                    if (matches(mid * RECORD_BYTES, state)) {
+                        return mid * RECORD_BYTES;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether a record holds the given position, guarding against
+     * key collisions.
+     */
+    private boolean matches(int record, State state) {
+        Board board = state.getBoard();
+        return records.getLong(record + BLACK) == board.getBits(1)
+                && records.getLong(record + WHITE) == board.getBits(2)
+                && records.get(record + PLAYER) == state.getPlayer();
+    }
+}
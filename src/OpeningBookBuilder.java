@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Offline builder of an {@link OpeningBook}. Every position up to a given
+ * number of moves from the start is searched on its own, and the
+ * statistics of all well-visited nodes of those searches are written to
+ * the book, together with the best move of each searched position.
+ *
+ * @author emsquellen
+ */
+public class OpeningBookBuilder {
+    private final int plies;
+    private final int iterations;
+    private final int minVisits;
+    private final long seed;
+    // Record per position key, keeping the most visited node of a position
+    private final Map<Long, List<Node>> nodes;
+    private final Map<Node, Byte> moves;
+
+    /**
+     * Constructor for an opening book builder.
+     *
+     * @param plies      the number of moves from the start to search
+     *                   positions for
+     * @param iterations the iterations of the search of every position
+     * @param minVisits  the visits a node needs to be written to the book
+     * @param seed       the master seed of the searches
+     */
+    public OpeningBookBuilder(int plies, int iterations, int minVisits, long seed) {
+        if (plies < 0) {
+            throw new IllegalArgumentException("plies must not be negative: " + plies);
+        }
+        this.plies = plies;
+        this.iterations = iterations;
+        this.minVisits = minVisits;
+        this.seed = seed;
+        this.nodes = new HashMap<Long, List<Node>>();
+        this.moves = new IdentityHashMap<Node, Byte>();
+    }
+
+    /**
+     * Searches every position up to the configured depth.
+     *
+     * @return int the number of positions searched
+     */
+    public int build() {
+        Deque<State> queue = new ArrayDeque<State>();
+        Map<Long, List<State>> seen = new HashMap<Long, List<State>>();
+        State start = new State(new Board(), 1, -1, -1);
+        queue.add(start);
+        add(seen, start.getKey(), start);
+        int searched = 0;
+        // Breadth first, so every position is reached at its lowest depth
+        Map<State, Integer> depths = new HashMap<State, Integer>();
+        depths.put(start, 0);
+        while (!queue.isEmpty()) {
+            State state = queue.poll();
+            search(state);
+            searched++;
+            int depth = depths.get(state);
+            if (depth == plies) {
+                continue;
+            }
+            for (State next : successors(state)) {
+                if (!containsPosition(seen.get(next.getKey()), next)) {
+                    add(seen, next.getKey(), next);
+                    depths.put(next, depth + 1);
+                    queue.add(next);
+                }
+            }
+        }
+        return searched;
+    }
+
+    /**
+     * Writes the book, sorted by position key.
+     *
+     * @param path the book file
+     * @return int the number of positions written
+     * @throws IOException if the file cannot be written
+     */
+    public int write(Path path) throws IOException {
+        List<Node> records = new ArrayList<Node>();
+        for (List<Node> sameKey : nodes.values()) {
+            records.addAll(sameKey);
+        }
+        records.sort(Comparator.comparingLong((Node node) -> node.getState().getKey()));
+
+        ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.HEADER_BYTES + records.size() * OpeningBook.RECORD_BYTES);
+        buffer.putInt(OpeningBook.MAGIC);
+        buffer.putInt(OpeningBook.VERSION);
+        buffer.putInt(records.size());
+        buffer.putInt(0);
+        for (Node node : records) {
+            State state = node.getState();
+            buffer.putLong(state.getKey());
+            buffer.putLong(state.getBoard().getBits(1));
+            buffer.putLong(state.getBoard().getBits(2));
+            buffer.putInt(node.getVisits());
+            buffer.putInt(node.getWins());
+            buffer.putInt(node.getLosses());
+            buffer.put((byte) state.getPlayer());
+            buffer.put(moves.getOrDefault(node, OpeningBook.NO_MOVE));
+            buffer.putShort((short) 0);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return records.size();
+    }
+
+    /**
+     * Searches one position and keeps its well-visited nodes.
+     */
+    private void search(State state) {
+        MCTSTree tree = new MCTSTree();
+        Node root = new Node(null, state.getBoard(), state.getPlayer(), -1, -1);
+        tree.setRoot(root);
+        tree.setSeed(seed ^ state.getKey());
+        SearchResult result = tree.search(SearchBudget.ofIterations(iterations));
+        Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        collect(root, visited);
+        // The searched position gets its best move, whichever search its
+        // record came from
+        Node record = find(state);
+        if (record != null) {
+            int[] move = result.getMove();
+            moves.put(record, move[0] < 0 ? OpeningBook.PASS : (byte) (move[0] * 8 + move[1]));
+        }
+    }
+
+    /**
+     * Keeps the well-visited nodes of a subtree, replacing a node of the
+     * same position with fewer visits.
+     */
+    private void collect(Node node, Set<Node> visited) {
+        if (!visited.add(node) || node.getVisits() < minVisits) {
+            return;
+        }
+        State state = node.getState();
+        List<Node> sameKey = nodes.computeIfAbsent(state.getKey(), key -> new ArrayList<Node>());
+        Node existing = find(state);
+        if (existing == null) {
+            sameKey.add(node);
+        } else if (existing.getVisits() < node.getVisits()) {
+            sameKey.set(sameKey.indexOf(existing), node);
+            Byte move = moves.remove(existing);
+            if (move != null) {
+                moves.put(node, move);
+            }
+        }
+        for (Node child : node.getChildren()) {
+            collect(child, visited);
+        }
+    }
+
+    /**
+     * Gets the kept node of a position.
+     */
+    private Node find(State state) {
+        List<Node> sameKey = nodes.get(state.getKey());
+        if (sameKey != null) {
+            for (Node node : sameKey) {
+                if (samePosition(node.getState(), state)) {
+                    return node;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Positions after every legal move, or after the pass when there is
+     * none and the game goes on.
+     */
+    private static List<State> successors(State state) {
+        List<State> successors = new ArrayList<State>();
+        Board board = state.getBoard();
+        for (int[] move : board.getAllMoves(state.getPlayer())) {
+            Board next = new Board(board);
+            next.makeMove(move[0], move[1], state.getPlayer());
+            successors.add(new State(next, state.getOpponent(), move[0], move[1]));
+        }
+        if (successors.isEmpty() && !board.gameOver()) {
+            successors.add(new State(new Board(board), state.getOpponent(), -1, -1));
+        }
+        return successors;
+    }
+
+    private static void add(Map<Long, List<State>> seen, long key, State state) {
+        seen.computeIfAbsent(key, k -> new ArrayList<State>()).add(state);
+    }
+
+    private static boolean containsPosition(List<State> states, State state) {
+        if (states != null) {
+            for (State other : states) {
+                if (samePosition(other, state)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean samePosition(State a, State b) {
+        return a.getPlayer() == b.getPlayer() && a.getBoard().equals(b.getBoard());
+    }
+
+    /**
+     * Builds a book: {@code OpeningBookBuilder <file> [plies] [iterations]
+     * [minVisits] [seed]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: OpeningBookBuilder <file> [plies=3] [iterations=100000] [minVisits=200]"
+                    + " [seed=0]");
+            System.exit(2);
+        }
+        Path path = Paths.get(args[0]);
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        int minVisits = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        long start = System.nanoTime();
+        OpeningBookBuilder builder = new OpeningBookBuilder(plies, iterations, minVisits, seed);
+        int searched = builder.build();
+        int written = builder.write(path);
+        System.out.printf("Searched %d positions, wrote %d to %s in %.1f s%n", searched, written, path,
+                (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.List;
+
+/**
+ * Perft: counts the positions reachable from a position in a fixed number
+ * of moves, as a correctness check and speed measure of move generation.
+ * A forced pass counts as a move, and a finished game counts as a single
+ * leaf at the depth where it ends.
+ *
+ * @author emsquellen
+ */
+public class Perft {
+    // Leaf counts from the start position for depths 1 to 10
+    private static final long[] EXPECTED = {
+            4L, 12L, 56L, 244L, 1396L, 8200L, 55092L, 390216L, 3005288L, 24571284L };
+
+    // One scratch board per ply, so no boards are allocated while counting
+    private final Board[] boards;
+
+    /**
+     * Constructor for a perft counter.
+     *
+     * @param maxDepth the deepest depth the counter is used for
+     */
+    public Perft(int maxDepth) {
+        this.boards = new Board[maxDepth + 1];
+        for (int i = 0; i < boards.length; i++) {
+            boards[i] = new Board();
+        }
+    }
+
+    /**
+     * Counts the leaf positions reachable from a position.
+     *
+     * @param board  the start position, left untouched
+     * @param player the player to move
+     * @param depth  the number of moves to play
+     * @return long
+     */
+    public long perft(Board board, int player, int depth) {
+        if (depth >= boards.length) {
+            throw new IllegalArgumentException("depth must be at most " + (boards.length - 1) + ": " + depth);
+        }
+        boards[depth].copyFrom(board);
+        return count(player, depth, false);
+    }
+
+    /**
+     * Counts the leaves below the board of the given depth.
+     */
+    private long count(int player, int depth, boolean passed) {
+        if (depth == 0) {
+            return 1;
+        }
+        Board board = boards[depth];
+        int opponent = player == 1 ? 2 : 1;
+        List<int[]> moves = board.getAllMoves(player);
+        if (moves.isEmpty()) {
+            // Two passes in a row end the game
+            if (passed) {
+                return 1;
+            }
+            boards[depth - 1].copyFrom(board);
+            return count(opponent, depth - 1, true);
+        }
+        long leaves = 0;
+        Board child = boards[depth - 1];
+        for (int[] move : moves) {
+            child.copyFrom(board);
+            if (!child.makeMove(move[0], move[1], player)) {
+                throw new IllegalStateException("Generated move " + move[0] + "," + move[1] + " was rejected");
+            }
+            leaves += count(opponent, depth - 1, false);
+        }
+        return leaves;
+    }
+
+    /**
+     * Runs perft from the start position up to the given depth (default 9),
+     * printing the counts and speed. Exits with status 1 when a count
+     * differs from the known value.
+     */
+    public static void main(String[] args) {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        Perft perft = new Perft(maxDepth);
+        boolean correct = true;
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            long start = System.nanoTime();
+            long leaves = perft.perft(new Board(), 1, depth);
+            long elapsed = Math.max(System.nanoTime() - start, 1);
+            String check = "";
+            if (depth <= EXPECTED.length) {
+                boolean ok = leaves == EXPECTED[depth - 1];
+                correct &= ok;
+                check = ok ? " ok" : " MISMATCH, expected " + EXPECTED[depth - 1];
+            }
+            System.out.printf("perft(%d) = %d in %.1f ms, %.0f nodes/s%s%n", depth, leaves, elapsed / 1e6,
+                    leaves * 1e9 / elapsed, check);
+        }
+        if (!correct) {
+            System.exit(1);
+        }
+    }
+}
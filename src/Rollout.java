@@ -0,0 +1,100 @@
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Plays random games to the end on a reusable scratch board.
+ * Nothing is allocated per move and the game tree is never touched, so a
+ * single instance can serve any number of playouts on one thread. Given a
+ * seeded generator, the same position always plays out the same way.
+ *
+ * @author emsquellen
+ */
+public class Rollout {
+    private static final ThreadLocal<Rollout> CURRENT = ThreadLocal.withInitial(Rollout::new);
+
+    private final Board scratch;
+    private final RandomGenerator random;
+
+    /**
+     * Constructor for a rollout engine.
+     */
+    public Rollout() {
+        this(new SplittableRandom());
+    }
+
+    /**
+     * Constructor for a rollout engine.
+     *
+     * @param random the random source for move choices
+     */
+    public Rollout(RandomGenerator random) {
+        this.scratch = new Board();
+        this.random = random;
+    }
+
+    /**
+     * Gets the rollout engine of the current thread.
+     *
+     * @return Rollout
+     */
+    public static Rollout current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Getter for the random source of the rollout engine.
+     *
+     * @return RandomGenerator
+     */
+    public RandomGenerator getRandom() {
+        return random;
+    }
+
+    /**
+     * Plays random moves from a position until the game is over.
+     *
+     * @param board  the start position, left untouched
+     * @param player the player to move
+     * @return the winning player, or 0 for a draw
+     */
+    public int play(Board board, int player) {
+        scratch.copyFrom(board);
+        int toMove = player;
+        int passes = 0;
+        // The game ends when both players have to pass in a row
+        while (passes < 2) {
+            long moves = scratch.getMoveMask(toMove);
+            if (moves == 0) {
+                passes++;
+            } else {
+                passes = 0;
+                int square = randomSquare(moves);
+                scratch.makeMove(square >>> 3, square & 7, toMove);
+            }
+            toMove = toMove == 1 ? 2 : 1;
+        }
+        return winner(scratch);
+    }
+
+    /**
+     * Gets the winner of a finished position.
+     *
+     * @param board the board
+     * @return the winning player, or 0 for a draw
+     */
+    public static int winner(Board board) {
+        int score1 = board.getScore(1);
+        int score2 = board.getScore(2);
+        return score1 > score2 ? 1 : score1 < score2 ? 2 : 0;
+    }
+
+    /**
+     * Picks a uniformly random set bit of a move mask.
+     */
+    private int randomSquare(long moves) {
+        for (int n = random.nextInt(Long.bitCount(moves)); n > 0; n--) {
+            moves &= moves - 1;
+        }
+        return Long.numberOfTrailingZeros(moves);
+    }
+}
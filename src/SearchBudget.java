@@ -0,0 +1,82 @@
+/**
+ * Limits for a single search. The search stops as soon as any of the
+ * limits is reached.
+ *
+ * @author emsquellen
+ */
+public class SearchBudget {
+    private final long timeMillis;
+    private final int maxIterations;
+    private final int maxNodes;
+
+    /**
+     * Constructor for a search budget.
+     *
+     * @param timeMillis    the wall-clock time to search for, in milliseconds
+     * @param maxIterations the maximum number of iterations
+     * @param maxNodes      the maximum number of nodes in the tree
+     */
+    public SearchBudget(long timeMillis, int maxIterations, int maxNodes) {
+        this.timeMillis = timeMillis;
+        this.maxIterations = maxIterations;
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Budget limited only by wall-clock time.
+     *
+     * @param timeMillis the time to search for, in milliseconds
+     * @return SearchBudget
+     */
+    public static SearchBudget ofMillis(long timeMillis) {
+        return new SearchBudget(timeMillis, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Budget limited only by the number of iterations.
+     *
+     * @param maxIterations the maximum number of iterations
+     * @return SearchBudget
+     */
+    public static SearchBudget ofIterations(int maxIterations) {
+        return new SearchBudget(Long.MAX_VALUE, maxIterations, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Budget limited only by the size of the tree.
+     *
+     * @param maxNodes the maximum number of nodes in the tree
+     * @return SearchBudget
+     */
+    public static SearchBudget ofNodes(int maxNodes) {
+        return new SearchBudget(Long.MAX_VALUE, Integer.MAX_VALUE, maxNodes);
+    }
+
+    /**
+     * Getter for the time limit in milliseconds.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Getter for the time limit in nanoseconds.
+     */
+    public long getTimeNanos() {
+        return timeMillis >= Long.MAX_VALUE / 1_000_000 ? Long.MAX_VALUE : timeMillis * 1_000_000;
+    }
+
+    /**
+     * Getter for the iteration limit.
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Getter for the node limit.
+     */
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+}
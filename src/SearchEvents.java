@@ -0,0 +1,167 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the search, so engine behaviour can be
+ * lined up with GC and CPU samples in one recording. The events are only
+ * recorded while a recording has them enabled, for example with
+ * {@code -XX:StartFlightRecording}.
+ *
+ * @author emsquellen
+ */
+public final class SearchEvents {
+    // One in this many iterations is recorded as an iteration event
+    private static final int ITERATION_SAMPLE_INTERVAL = 64;
+
+    private SearchEvents() {
+    }
+
+    /**
+     * Gets an event for the current iteration if it is sampled and
+     * iteration events are being recorded.
+     *
+     * @return IterationEvent, or null if the iteration is not recorded
+     */
+    static IterationEvent sampleIteration() {
+        if (ThreadLocalRandom.current().nextInt(ITERATION_SAMPLE_INTERVAL) != 0) {
+            return null;
+        }
+        IterationEvent event = new IterationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * A finished search and the move it chose.
+     */
+    @Name("mcts.SearchDecision")
+    @Label("Search Decision")
+    @Category("MCTS")
+    @Description("A search and the move it chose")
+    @StackTrace(false)
+    public static class SearchDecisionEvent extends Event {
+        @Label("Iterations")
+        int iterations;
+
+        @Label("Move X")
+        int moveX;
+
+        @Label("Move Y")
+        int moveY;
+
+        @Label("Win Rate")
+        @Description("Win rate of the chosen child for the player making the move")
+        double winRate;
+
+        @Label("Visits")
+        @Description("Visits of the chosen child")
+        int visits;
+
+        @Label("Tree Size")
+        @Description("Nodes in the tree after the search")
+        int treeSize;
+
+        @Label("Parallelism")
+        String parallelism;
+
+        @Label("Threads")
+        int threads;
+    }
+
+    /**
+     * The phases of one sampled iteration.
+     */
+    @Name("mcts.Iteration")
+    @Label("Iteration")
+    @Category("MCTS")
+    @Description("Phase durations of a sampled search iteration")
+    @StackTrace(false)
+    public static class IterationEvent extends Event {
+        @Label("Depth")
+        @Description("Depth of the node played out from")
+        int depth;
+
+        @Label("Playouts")
+        int playouts;
+
+        @Label("Select")
+        @Timespan(Timespan.NANOSECONDS)
+        long selectNanos;
+
+        @Label("Expand")
+        @Timespan(Timespan.NANOSECONDS)
+        long expandNanos;
+
+        @Label("Playout")
+        @Timespan(Timespan.NANOSECONDS)
+        long playoutNanos;
+
+        @Label("Backpropagate")
+        @Timespan(Timespan.NANOSECONDS)
+        long backpropagateNanos;
+    }
+
+    /**
+     * A pass of evicting cold subtrees to bring the tree under its limit.
+     */
+    @Name("mcts.Eviction")
+    @Label("Eviction")
+    @Category("MCTS")
+    @Description("Pruning of the least visited subtrees")
+    @StackTrace(false)
+    public static class EvictionEvent extends Event {
+        @Label("Nodes Before")
+        int nodesBefore;
+
+        @Label("Nodes After")
+        int nodesAfter;
+
+        @Label("Node Limit")
+        int nodeLimit;
+
+        @Label("Estimated Bytes Freed")
+        @DataAmount
+        long bytesFreed;
+    }
+
+    /**
+     * A move played on the tree, keeping the subtree below it.
+     */
+    @Name("mcts.TreeReuse")
+    @Label("Tree Reuse")
+    @Category("MCTS")
+    @Description("A move played on the tree and the part of the tree kept")
+    @StackTrace(false)
+    public static class TreeReuseEvent extends Event {
+        @Label("Move X")
+        int moveX;
+
+        @Label("Move Y")
+        int moveY;
+
+        @Label("Reused")
+        @Description("Whether the move already had a node in the tree")
+        boolean reused;
+
+        @Label("Nodes Before")
+        int nodesBefore;
+
+        @Label("Nodes Kept")
+        int nodesKept;
+
+        @Label("Visits Kept")
+        @Description("Visits of the new root")
+        int visitsKept;
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Result of a search: the chosen move and what it took to find it.
+ *
+ * @author emsquellen
+ */
+public class SearchResult {
+    private final Node bestMove;
+    private final int[] move;
+    private final int iterations;
+    private final long elapsedNanos;
+
+    /**
+     * Constructor for a search result.
+     *
+     * @param bestMove     the node of the chosen move
+     * @param move         the chosen move (x, y)
+     * @param iterations   the number of iterations that ran
+     * @param elapsedNanos the time the search took
+     */
+    public SearchResult(Node bestMove, int[] move, int iterations, long elapsedNanos) {
+        this.bestMove = bestMove;
+        this.move = move;
+        this.iterations = iterations;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Constructor for a search result without a node, for trees that do
+     * not keep their nodes as objects.
+     *
+     * @param move         the chosen move (x, y)
+     * @param iterations   the number of iterations that ran
+     * @param elapsedNanos the time the search took
+     */
+    public SearchResult(int[] move, int iterations, long elapsedNanos) {
+        this.bestMove = null;
+        this.move = move;
+        this.iterations = iterations;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Getter for the node of the chosen move, null if the tree does not
+     * keep its nodes as objects.
+     */
+    public Node getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Getter for the chosen move (x, y).
+     */
+    public int[] getMove() {
+        return move;
+    }
+
+    /**
+     * Getter for the number of iterations that ran.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Getter for the time the search took in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * String representation of the result.
+     */
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("Iterations: ")
+                .append(iterations)
+                .append("\nElapsed: ")
+                .append(elapsedNanos / 1_000_000)
+                .append(" ms\n")
+                .append(bestMove == null ? Arrays.toString(move) : bestMove.toString())
+                .toString();
+    }
+}
@@ -0,0 +1,423 @@
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous search service for many games at once. Every game is an
+ * {@link MCTSTree}; a request searches one tree and completes a future with
+ * the move when its budget runs out, its time limit being a deadline
+ * counted from the moment it was submitted.
+ *
+ * A fixed pool of threads serves all requests in turns of a few
+ * milliseconds. Requests that have no move yet go first, earliest
+ * deadline first; the others take turns round robin, so
+ * thousands of games share the threads fairly. A request is completed at
+ * its deadline with the best move found by then, whether or not it is due
+ * for a turn.
+ *
+ * The service pushes back when it is overloaded: a request is rejected
+ * right away when the number of open requests is at its limit, or when
+ * the requests waiting for a first move would keep it from getting one
+ * before its deadline.
+ *
+ * Trees are best searched with {@link MCTSTree.Parallelism#NONE} here,
+ * as a parallel tree starts threads of its own for every turn.
+ *
+ * @author emsquellen
+ */
+public class SearchService {
+    private static final long DEFAULT_SLICE_MILLIS = 2;
+    // Admission counts on turns taking this many times their average, as
+    // turns on a loaded machine vary a lot
+    private static final int ADMISSION_HEADROOM = 2;
+
+    /**
+     * One search of one tree, carried over the turns it gets
+     */
+    private static final class Request {
+        private final MCTSTree tree;
+        private final SearchBudget budget;
+        private final long start;
+        private final long deadline;
+        private final CompletableFuture<SearchResult> future;
+        private final SearchEvents.SearchDecisionEvent event;
+        private ScheduledFuture<?> timer;
+        // Order in the queue: the deadline until the first move, a turn
+        // number after it
+        private boolean started;
+        private long order;
+        private SearchResult last;
+        private int iterations;
+        private volatile boolean finished;
+
+        private Request(MCTSTree tree, SearchBudget budget) {
+            this.tree = tree;
+            this.budget = budget;
+            this.start = System.nanoTime();
+            long timeNanos = budget.getTimeNanos();
+            this.deadline = timeNanos == Long.MAX_VALUE ? Long.MAX_VALUE : start + timeNanos;
+            this.future = new CompletableFuture<SearchResult>();
+            this.event = new SearchEvents.SearchDecisionEvent();
+            this.order = deadline;
+        }
+    }
+
+    private static final Comparator<Request> TURN_ORDER = Comparator
+            .comparing((Request request) -> request.started)
+            .thenComparingLong(request -> request.order);
+
+    private final PriorityBlockingQueue<Request> queue;
+    private final ScheduledThreadPoolExecutor timers;
+    private final Thread[] workers;
+    private final int maxOpen;
+    private final long sliceMillis;
+    private final AtomicInteger open;
+    private final AtomicInteger waiting;
+    private final AtomicLong turns;
+    // Moving average of the wall-clock time a turn takes, for admission,
+    // which never counts on turns shorter than the first estimate
+    private final AtomicLong turnNanos;
+    private final long minTurnNanos;
+    private final Set<MCTSTree> searching;
+    private final AtomicLong completed;
+    private final AtomicLong rejected;
+    private volatile boolean shutdown;
+
+    /**
+     * Constructor for a search service.
+     *
+     * @param threads the number of threads searching
+     * @param maxOpen the maximum number of requests submitted and not yet
+     *                completed
+     */
+    public SearchService(int threads, int maxOpen) {
+        this(threads, maxOpen, DEFAULT_SLICE_MILLIS);
+    }
+
+    /**
+     * Constructor for a search service.
+     *
+     * @param threads     the number of threads searching
+     * @param maxOpen     the maximum number of requests submitted and not
+     *                    yet completed
+     * @param sliceMillis the time a request searches per turn, in
+     *                    milliseconds
+     */
+    public SearchService(int threads, int maxOpen, long sliceMillis) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("maxOpen must be at least 1: " + maxOpen);
+        }
+        if (sliceMillis < 1) {
+            throw new IllegalArgumentException("sliceMillis must be at least 1: " + sliceMillis);
+        }
+        this.queue = new PriorityBlockingQueue<Request>(Math.min(maxOpen, 1024), TURN_ORDER);
+        this.timers = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "search-service-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timers.setRemoveOnCancelPolicy(true);
+        this.maxOpen = maxOpen;
+        this.sliceMillis = sliceMillis;
+        this.open = new AtomicInteger();
+        this.waiting = new AtomicInteger();
+        this.turns = new AtomicLong();
+        // A turn takes longer than its slice when there are more threads
+        // than processors to run them
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.minTurnNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis)
+                * Math.max(1, (threads + processors - 1) / processors);
+        this.turnNanos = new AtomicLong(minTurnNanos);
+        this.searching = ConcurrentHashMap.newKeySet();
+        this.completed = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, "search-service-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Submits a search of a tree. The tree must not be used elsewhere until
+     * the future completes; afterwards the result's move can be played on
+     * it with {@link MCTSTree#advance(int, int)}.
+     *
+     * The future fails with a {@link RejectedExecutionException} if the
+     * service is overloaded or shut down, with an
+     * {@link IllegalStateException} if the tree is already being searched
+     * or its game is over, and with a {@link TimeoutException} if the deadline passed before the
+     * root got a single child. Cancelling the future drops the request
+     * before its next turn.
+     *
+     * @param tree   the tree of the game
+     * @param budget the limits of the search, the time limit counting from
+     *               now
+     * @return CompletableFuture<SearchResult> the result of the search
+     */
+    public CompletableFuture<SearchResult> submit(MCTSTree tree, SearchBudget budget) {
+        Request request = new Request(tree, budget);
+        request.event.begin();
+        if (shutdown) {
+            return reject(request, "Search service is shut down");
+        }
+        // Reserve a place before queueing, so the limit is never exceeded
+        if (open.incrementAndGet() > maxOpen) {
+            open.decrementAndGet();
+            return reject(request, "Search service is overloaded: " + maxOpen + " open requests");
+        }
+        // The requests waiting for a first move, this one included, take
+        // turns on all threads after every thread finishes the turn it is
+        // busy with. Counting this one in before the check keeps a burst of
+        // submits from all seeing the same short queue.
+        int ahead = waiting.incrementAndGet();
+        long rounds = (ahead + workers.length - 1) / workers.length + 1;
+        long turn = Math.max(turnNanos.get(), minTurnNanos) * ADMISSION_HEADROOM;
+        if (request.deadline != Long.MAX_VALUE && request.start + rounds * turn > request.deadline) {
+            waiting.decrementAndGet();
+            open.decrementAndGet();
+            return reject(request, "Search service cannot start the search before its deadline");
+        }
+        if (!searching.add(tree)) {
+            waiting.decrementAndGet();
+            open.decrementAndGet();
+            request.future.completeExceptionally(new IllegalStateException("Tree is already being searched"));
+            return request.future;
+        }
+        if (request.deadline != Long.MAX_VALUE) {
+            request.timer = timers.schedule(() -> expire(request), request.deadline - System.nanoTime(),
+                    TimeUnit.NANOSECONDS);
+        }
+        queue.add(request);
+        if (shutdown && queue.remove(request)) {
+            finish(request, null, new CancellationException("Search service is shut down"));
+        }
+        return request.future;
+    }
+
+    /**
+     * Getter for the number of requests submitted and not yet completed.
+     *
+     * @return int
+     */
+    public int getOpenRequests() {
+        return open.get();
+    }
+
+    /**
+     * Getter for the number of requests completed, successfully or not.
+     *
+     * @return long
+     */
+    public long getCompletedRequests() {
+        return completed.get();
+    }
+
+    /**
+     * Getter for the number of requests rejected as the service was
+     * overloaded or shut down.
+     *
+     * @return long
+     */
+    public long getRejectedRequests() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops the service. Requests still open are cancelled, and the
+     * threads finish their current turn and exit.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            finish(request, null, new CancellationException("Search service is shut down"));
+        }
+        timers.shutdownNow();
+    }
+
+    private CompletableFuture<SearchResult> reject(Request request, String message) {
+        rejected.incrementAndGet();
+        request.future.completeExceptionally(new RejectedExecutionException(message));
+        return request.future;
+    }
+
+    /**
+     * Completes a request at its deadline, unless a thread is taking its
+     * turn right now, which then completes it
+     */
+    private void expire(Request request) {
+        if (queue.remove(request)) {
+            try {
+                checkGameOver(request);
+                finish(request, result(request), null);
+            } catch (RuntimeException e) {
+                finish(request, null, e);
+            }
+        }
+    }
+
+    /**
+     * Throws the error of the search if the game of a request is over, so
+     * the request fails with the reason instead of a timeout
+     */
+    private static void checkGameOver(Request request) {
+        Node root = request.tree.getRoot();
+        if (root.getNumChildren() == 0 && !root.hasUntriedMoves()) {
+            request.tree.step(SearchBudget.ofIterations(1));
+        }
+    }
+
+    /**
+     * Loop of a service thread: takes the request whose turn it is, runs
+     * one slice of it and puts it back unless it is done
+     */
+    private void work() {
+        while (!shutdown) {
+            Request request;
+            try {
+                request = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                if (turn(request)) {
+                    queue.add(request);
+                    // Do not leave a request behind in a service shut down
+                    // during its turn
+                    if (shutdown && queue.remove(request)) {
+                        finish(request, null, new CancellationException("Search service is shut down"));
+                    }
+                }
+            } catch (RuntimeException e) {
+                finish(request, null, e);
+            }
+        }
+    }
+
+    /**
+     * Runs one slice of a request
+     *
+     * @return whether the request needs another turn
+     */
+    private boolean turn(Request request) {
+        if (request.future.isDone()) {
+            // Cancelled by the caller
+            finish(request, null, null);
+            return false;
+        }
+        if (shutdown) {
+            finish(request, null, new CancellationException("Search service is shut down"));
+            return false;
+        }
+        MCTSTree tree = request.tree;
+        SearchBudget budget = request.budget;
+        checkGameOver(request);
+        long now = System.nanoTime();
+        int remainingIterations = budget.getMaxIterations() - request.iterations;
+        if (now >= request.deadline || remainingIterations <= 0 || tree.isDecided()
+                || tree.getNodeCount() >= budget.getMaxNodes()) {
+            finish(request, result(request), null);
+            return false;
+        }
+        long remainingMillis = request.deadline == Long.MAX_VALUE ? Long.MAX_VALUE
+                : TimeUnit.NANOSECONDS.toMillis(request.deadline - now);
+        // At least a millisecond, so the slice runs an iteration
+        long slice = Math.max(1, Math.min(sliceMillis, remainingMillis));
+        SearchResult result = tree.step(new SearchBudget(slice, remainingIterations, budget.getMaxNodes()));
+        long took = System.nanoTime() - now;
+        turnNanos.getAndUpdate(average -> average + (took - average) / 16);
+        if (result == null) {
+            // The slice ran out of time before the root got a child; the
+            // request keeps its place among those waiting for a first move,
+            // or fails past its deadline
+            return true;
+        }
+        if (!request.started) {
+            request.started = true;
+            waiting.decrementAndGet();
+        }
+        request.order = turns.incrementAndGet();
+        request.last = result;
+        request.iterations += result.getIterations();
+        // No iterations means a book move was played
+        if (result.getIterations() == 0) {
+            finish(request, result(request), null);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Result of a request over all its turns
+     *
+     * @return the result, or null if the root has no move yet
+     */
+    private static SearchResult result(Request request) {
+        long elapsed = System.nanoTime() - request.start;
+        SearchResult last = request.last;
+        if (last != null) {
+            return new SearchResult(last.getBestMove(), last.getMove(), request.iterations, elapsed);
+        }
+        // Out of time before the first turn, a tree searched before may
+        // still know a move
+        Node root = request.tree.getRoot();
+        if (root.getNumChildren() > 0) {
+            Node best = root.getBestChild();
+            return new SearchResult(best, root.getMoveTo(best), 0, elapsed);
+        }
+        return null;
+    }
+
+    /**
+     * Completes a request and frees its place. Only the first call for a
+     * request has any effect.
+     *
+     * @param result the result, or null to fail with {@code error}
+     * @param error  the error, or null to fail with a timeout unless the
+     *               request is already done
+     */
+    private void finish(Request request, SearchResult result, Throwable error) {
+        synchronized (request) {
+            if (request.finished) {
+                return;
+            }
+            request.finished = true;
+        }
+        if (request.timer != null) {
+            request.timer.cancel(false);
+        }
+        if (!request.started) {
+            waiting.decrementAndGet();
+        }
+        searching.remove(request.tree);
+        open.decrementAndGet();
+        completed.incrementAndGet();
+        if (result != null) {
+            request.tree.decide(request.event, result);
+            request.future.complete(result);
+        } else if (error != null) {
+            request.future.completeExceptionally(error);
+        } else if (!request.future.isDone()) {
+            request.future.completeExceptionally(
+                    new TimeoutException("No move found before the deadline of the search"));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of where a tree spends its search time. Every iteration adds
+ * the time of its four phases, the depth it reached and the nodes it
+ * created. The counters are safe to update from many threads and keep
+ * growing over searches until they are reset.
+ *
+ * @author emsquellen
+ */
+public class SearchStatistics {
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder playouts = new LongAdder();
+    private final LongAdder nodesAllocated = new LongAdder();
+    private final LongAdder depthSum = new LongAdder();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final LongAdder selectNanos = new LongAdder();
+    private final LongAdder expandNanos = new LongAdder();
+    private final LongAdder playoutNanos = new LongAdder();
+    private final LongAdder backpropagateNanos = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private volatile int liveNodes;
+
+    /**
+     * Records one iteration.
+     *
+     * @param depth              the depth of the node played out from
+     * @param playouts           the number of playouts of the iteration
+     * @param selectNanos        the time spent selecting
+     * @param expandNanos        the time spent expanding
+     * @param playoutNanos       the time spent playing out
+     * @param backpropagateNanos the time spent backpropagating
+     */
+    public void recordIteration(int depth, int playouts, long selectNanos, long expandNanos, long playoutNanos,
+            long backpropagateNanos) {
+        this.iterations.increment();
+        this.playouts.add(playouts);
+        this.depthSum.add(depth);
+        this.maxDepth.accumulateAndGet(depth, Math::max);
+        this.selectNanos.add(selectNanos);
+        this.expandNanos.add(expandNanos);
+        this.playoutNanos.add(playoutNanos);
+        this.backpropagateNanos.add(backpropagateNanos);
+    }
+
+    /**
+     * Records a node added to the tree.
+     */
+    public void recordNode() {
+        nodesAllocated.increment();
+    }
+
+    /**
+     * Records the end of a search.
+     *
+     * @param elapsedNanos the time the search took
+     * @param liveNodes    the number of nodes in the tree afterwards
+     */
+    public void recordSearch(long elapsedNanos, int liveNodes) {
+        this.searches.increment();
+        this.searchNanos.add(elapsedNanos);
+        this.liveNodes = liveNodes;
+    }
+
+    /**
+     * Adds the iteration counters of another collector, such as one of a
+     * worker tree. Search times are left out, since the worker searched
+     * during this tree's search.
+     *
+     * @param other the statistics to add
+     */
+    public void add(SearchStatistics other) {
+        this.iterations.add(other.getIterations());
+        this.playouts.add(other.getPlayouts());
+        this.nodesAllocated.add(other.getNodesAllocated());
+        this.depthSum.add(other.depthSum.sum());
+        this.maxDepth.accumulateAndGet(other.getMaxDepth(), Math::max);
+        this.selectNanos.add(other.getSelectNanos());
+        this.expandNanos.add(other.getExpandNanos());
+        this.playoutNanos.add(other.getPlayoutNanos());
+        this.backpropagateNanos.add(other.getBackpropagateNanos());
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    public void reset() {
+        iterations.reset();
+        playouts.reset();
+        nodesAllocated.reset();
+        depthSum.reset();
+        maxDepth.set(0);
+        selectNanos.reset();
+        expandNanos.reset();
+        playoutNanos.reset();
+        backpropagateNanos.reset();
+        searches.reset();
+        searchNanos.reset();
+        liveNodes = 0;
+    }
+
+    /**
+     * Getter for the number of iterations.
+     *
+     * @return long
+     */
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    /**
+     * Getter for the number of playouts.
+     *
+     * @return long
+     */
+    public long getPlayouts() {
+        return playouts.sum();
+    }
+
+    /**
+     * Getter for the number of nodes added to the tree.
+     *
+     * @return long
+     */
+    public long getNodesAllocated() {
+        return nodesAllocated.sum();
+    }
+
+    /**
+     * Getter for the number of nodes in the tree after the last search.
+     *
+     * @return int
+     */
+    public int getLiveNodes() {
+        return liveNodes;
+    }
+
+    /**
+     * Getter for the deepest node played out from.
+     *
+     * @return int
+     */
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Getter for the average depth of the nodes played out from.
+     *
+     * @return double
+     */
+    public double getAverageDepth() {
+        long count = getIterations();
+        return count == 0 ? 0 : (double) depthSum.sum() / count;
+    }
+
+    /**
+     * Getter for the time spent selecting.
+     *
+     * @return long
+     */
+    public long getSelectNanos() {
+        return selectNanos.sum();
+    }
+
+    /**
+     * Getter for the time spent expanding.
+     *
+     * @return long
+     */
+    public long getExpandNanos() {
+        return expandNanos.sum();
+    }
+
+    /**
+     * Getter for the time spent playing out.
+     *
+     * @return long
+     */
+    public long getPlayoutNanos() {
+        return playoutNanos.sum();
+    }
+
+    /**
+     * Getter for the time spent backpropagating.
+     *
+     * @return long
+     */
+    public long getBackpropagateNanos() {
+        return backpropagateNanos.sum();
+    }
+
+    /**
+     * Getter for the number of searches.
+     *
+     * @return long
+     */
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    /**
+     * Getter for the wall-clock time spent searching.
+     *
+     * @return long
+     */
+    public long getSearchNanos() {
+        return searchNanos.sum();
+    }
+
+    /**
+     * Getter for the iterations per second of search time.
+     *
+     * @return double
+     */
+    public double getIterationsPerSecond() {
+        return perSecond(getIterations());
+    }
+
+    /**
+     * Getter for the playouts per second of search time.
+     *
+     * @return double
+     */
+    public double getPlayoutsPerSecond() {
+        return perSecond(getPlayouts());
+    }
+
+    private double perSecond(long count) {
+        long nanos = getSearchNanos();
+        return nanos == 0 ? 0 : count * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d iterations (%.0f/s), %d playouts (%.0f/s), %d nodes allocated, %d live, "
+                + "depth max %d avg %.1f, select %d ms, expand %d ms, playout %d ms, backpropagate %d ms",
+                getIterations(), getIterationsPerSecond(), getPlayouts(), getPlayoutsPerSecond(),
+                getNodesAllocated(), getLiveNodes(), getMaxDepth(), getAverageDepth(), getSelectNanos() / 1000000,
+                getExpandNanos() / 1000000, getPlayoutNanos() / 1000000, getBackpropagateNanos() / 1000000);
+    }
+}
@@ -6,6 +6,9 @@ import java.util.List;
  * @author emsquellen
  */
 public class State {
+    // Zobrist key of the side to move, folded in when player 2 is to move
+    private static final long SIDE_TO_MOVE = 0x9E3779B97F4A7C15L;
+
     private final Board board;
     private final int player;
     private final int opponent;
@@ -71,6 +74,14 @@ public class State {
         return new int[] { x, y };
     }
 
+    /**
+     * Getter for the Zobrist key of the position, covering the board and the
+     * side to move but not the move that led to it.
+     */
+    public long getKey() {
+        return player == 2 ? board.getZobristKey() ^ SIDE_TO_MOVE : board.getZobristKey();
+    }
+
     /**
      * Equals method.
      */
@@ -83,6 +94,14 @@ public class State {
                 && ((State) obj).y == this.y;
     }
 
+    /**
+     * Hash code method, consistent with equals.
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(getKey() * 31 + x * 8 + y);
+    }
+
     /**
      * String representation of the state.
      */
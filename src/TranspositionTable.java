@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size, lock-free table of tree nodes keyed by position.
+ * When a position is reached through different move orders the table
+ * hands back the node that already exists, so its statistics are shared
+ * and the tree becomes a directed acyclic graph.
+ *
+ * Every key maps to a bucket of two slots. A new node goes into an empty
+ * slot, or else replaces the node with the fewest visits in the bucket.
+ * Replaced nodes stay in the tree, they just cannot be found anymore.
+ *
+ * @author emsquellen
+ */
+public class TranspositionTable {
+    private static final int BUCKET_SIZE = 2;
+
+    private final AtomicReferenceArray<Node> slots;
+    private final int bucketMask;
+
+    /**
+     * Constructor for a transposition table.
+     *
+     * @param capacity the number of nodes the table can hold, rounded up
+     *                 to a power of two
+     */
+    public TranspositionTable(int capacity) {
+        if (capacity < BUCKET_SIZE) {
+            throw new IllegalArgumentException("capacity must be at least " + BUCKET_SIZE + ": " + capacity);
+        }
+        int buckets = Integer.highestOneBit(capacity - 1) * 2 / BUCKET_SIZE;
+        this.slots = new AtomicReferenceArray<Node>(buckets * BUCKET_SIZE);
+        this.bucketMask = buckets - 1;
+    }
+
+    /**
+     * Getter for the number of nodes the table can hold.
+     */
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * Looks up the node of a position.
+     *
+     * @param state the state of the position
+     * @return Node, or null if the position is not in the table
+     */
+    public Node get(State state) {
+        long key = state.getKey();
+        int first = bucket(key);
+        for (int i = first; i < first + BUCKET_SIZE; i++) {
+            Node node = slots.get(i);
+            if (node != null && matches(node.getState(), state, key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the node of the node's position, storing the node if the
+     * position is not in the table yet.
+     *
+     * @param node the node to store
+     * @return the node already in the table, or the given node
+     */
+    public Node putIfAbsent(Node node) {
+        State state = node.getState();
+        long key = state.getKey();
+        int first = bucket(key);
+        while (true) {
+            int victim = -1;
+            Node victimNode = null;
+            for (int i = first; i < first + BUCKET_SIZE; i++) {
+                Node current = slots.get(i);
+                if (current == null) {
+                    if (victim == -1 || victimNode != null) {
+                        victim = i;
+                        victimNode = null;
+                    }
+                } else if (matches(current.getState(), state, key)) {
+                    return current;
+                } else if (victim == -1 || (victimNode != null && current.getVisits() < victimNode.getVisits())) {
+                    victim = i;
+                    victimNode = current;
+                }
+            }
+            // Retry when another thread changed the slot in the meantime
+            if (slots.compareAndSet(victim, victimNode, node)) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Removes every node from the table.
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+    }
+
+    /**
+     * Index of the first slot of the bucket of a key.
+     */
+    private int bucket(long key) {
+        return ((int) (key ^ (key >>> 32)) & bucketMask) * BUCKET_SIZE;
+    }
+
+    /**
+     * Checks whether a state is the position with the given key.
+     */
+    private static boolean matches(State candidate, State state, long key) {
+        return candidate.getKey() == key
+                && candidate.getPlayer() == state.getPlayer()
+                && candidate.getBoard().equals(state.getBoard());
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of a search tree. Nodes are written breadth first as
+ * fixed-size records holding the position, the untried moves and the
+ * statistics, followed by one int per child edge, so a saved tree is read
+ * back with a single pass over the mapped file and without replaying
+ * expansions. Nodes shared between parents are written once.
+ *
+ * Virtual losses are not saved, so a tree should not be saved while it is
+ * being searched.
+ *
+ * @author emsquellen
+ */
+public class TreeSnapshot {
+    static final int MAGIC = 0x4D435453;
+    static final int VERSION = 1;
+    // Magic, version, node count and edge count
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 64;
+    static final int BLACK = 0;
+    static final int WHITE = 8;
+    static final int KEY = 16;
+    static final int UNTRIED = 24;
+    static final int VISITS = 32;
+    static final int WINS = 36;
+    static final int LOSSES = 40;
+    static final int FIRST_CHILD = 44;
+    static final int PARENT = 48;
+    static final int CHILDREN = 52;
+    static final int PLAYER = 53;
+    static final int X = 54;
+    static final int Y = 55;
+    static final int FLAGS = 56;
+    private static final int UNTRIED_PASS = 1;
+    private static final int PROOF_SHIFT = 1;
+
+    private TreeSnapshot() {
+    }
+
+    /**
+     * Writes the subtree of a node to a file.
+     *
+     * @param root the root of the tree to save
+     * @param path the snapshot file
+     * @return int the number of nodes written
+     * @throws IOException if the file cannot be written
+     */
+    public static int save(Node root, Path path) throws IOException {
+        List<Node> nodes = new ArrayList<Node>();
+        Map<Node, Integer> ids = new IdentityHashMap<Node, Integer>();
+        // Breadth first, remembering the first parent every node was found
+        // from in case its own parent lies outside the saved tree
+        List<Integer> discoverers = new ArrayList<Integer>();
+        Deque<Node> queue = new ArrayDeque<Node>();
+        ids.put(root, 0);
+        nodes.add(root);
+        discoverers.add(-1);
+        queue.add(root);
+        long edges = 0;
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            int id = ids.get(node);
+            for (Node child : node.getChildren()) {
+                edges++;
+                if (!ids.containsKey(child)) {
+                    ids.put(child, nodes.size());
+                    nodes.add(child);
+                    discoverers.add(id);
+                    queue.add(child);
+                }
+            }
+        }
+        long length = HEADER_BYTES + (long) nodes.size() * RECORD_BYTES + edges * Integer.BYTES;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tree too large for a snapshot: " + nodes.size() + " nodes");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(nodes.size());
+            buffer.putInt((int) edges);
+            int edgeStart = HEADER_BYTES + nodes.size() * RECORD_BYTES;
+            int edge = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                State state = node.getState();
+                Board board = state.getBoard();
+                List<Node> children = node.getChildren();
+                Integer parent = node == root ? null : ids.get(node.getParent());
+                int record = HEADER_BYTES + i * RECORD_BYTES;
+                buffer.putLong(record + BLACK, board.getBits(1));
+                buffer.putLong(record + WHITE, board.getBits(2));
+                buffer.putLong(record + KEY, board.getZobristKey());
+                buffer.putLong(record + UNTRIED, node.getUntriedMoves());
+                buffer.putInt(record + VISITS, node.getVisits());
+                buffer.putInt(record + WINS, node.getWins());
+                buffer.putInt(record + LOSSES, node.getLosses());
+                buffer.putInt(record + FIRST_CHILD, edge);
+                buffer.putInt(record + PARENT, node == root ? -1 : parent != null ? parent : discoverers.get(i));
+                buffer.put(record + CHILDREN, (byte) children.size());
+                buffer.put(record + PLAYER, (byte) state.getPlayer());
+                buffer.put(record + X, (byte) state.getX());
+                buffer.put(record + Y, (byte) state.getY());
+                buffer.put(record + FLAGS, (byte) ((node.isPassUntried() ? UNTRIED_PASS : 0)
+                        | node.getProof().ordinal() << PROOF_SHIFT));
+                for (Node child : children) {
+                    buffer.putInt(edgeStart + edge++ * Integer.BYTES, ids.get(child));
+                }
+            }
+            buffer.force();
+        }
+        return nodes.size();
+    }
+
+    /**
+     * Reads a tree back from a file.
+     *
+     * @param path the snapshot file
+     * @return Node the root of the tree
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static Node load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a tree snapshot: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a tree snapshot of version " + VERSION + ": " + path);
+            }
+            int count = buffer.getInt(8);
+            int edges = buffer.getInt(12);
+            if (count < 1 || HEADER_BYTES + (long) count * RECORD_BYTES + (long) edges * Integer.BYTES != length) {
+                throw new IOException("Truncated tree snapshot: " + path);
+            }
+
+            Node.Proof[] proofs = Node.Proof.values();
+            Node[] nodes = new Node[count];
+            for (int i = 0; i < count; i++) {
+                int record = HEADER_BYTES + i * RECORD_BYTES;
+                Board board = new Board(buffer.getLong(record + BLACK), buffer.getLong(record + WHITE),
+                        buffer.getLong(record + KEY));
+                State state = new State(board, buffer.get(record + PLAYER), buffer.get(record + X),
+                        buffer.get(record + Y));
+                int flags = buffer.get(record + FLAGS) & 0xFF;
+                nodes[i] = new Node(state, buffer.getLong(record + UNTRIED), (flags & UNTRIED_PASS) != 0,
+                        buffer.getInt(record + VISITS), buffer.getInt(record + WINS), buffer.getInt(record + LOSSES),
+                        proofs[flags >>> PROOF_SHIFT]);
+            }
+            int edgeStart = HEADER_BYTES + count * RECORD_BYTES;
+            for (int i = 0; i < count; i++) {
+                int record = HEADER_BYTES + i * RECORD_BYTES;
+                int parent = buffer.getInt(record + PARENT);
+                if (parent >= 0) {
+                    nodes[i].setParent(nodes[parent]);
+                }
+                int first = buffer.getInt(record + FIRST_CHILD);
+                int size = buffer.get(record + CHILDREN) & 0xFF;
+                if (size > 0) {
+                    List<Node> children = new ArrayList<Node>(size);
+                    for (int c = first; c < first + size; c++) {
+                        children.add(nodes[buffer.getInt(edgeStart + c * Integer.BYTES)]);
+                    }
+                    nodes[i].setChildren(children);
+                    nodes[i].setTerminal(false);
+                }
+            }
+            return nodes[0];
+        }
+    }
+}
@@ -4,116 +4,115 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 public class Board {
-    private int[][] gameBoard;
+    private static final long NOT_COL_0 = 0xFEFEFEFEFEFEFEFEL;
+    private static final long NOT_COL_7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final int[] SHIFTS = { 1, 9, 8, 7 };
+    private static final long[] LEFT_MASKS = { NOT_COL_0, NOT_COL_0, -1L, NOT_COL_7 };
+    private static final long[] RIGHT_MASKS = { NOT_COL_7, NOT_COL_7, -1L, NOT_COL_0 };
+    private long black;
+    private long white;
 
-    public Board(int[][] board) {this.gameBoard = board;}
+    public Board(int[][] board) {
+        for (int i = 0; i < 8; ++i) {
+            for (int j = 0; j < 8; ++j) {
+                if (board[i][j] == 1) {black |= 1L << (i * 8 + j);}
+                else if (board[i][j] == 2) {white |= 1L << (i * 8 + j);}
+            }
+        }
+    }
+
+    public Board(Board board) {this.black = board.black; this.white = board.white;}
 
-    public Board(Board board) {
-        this.gameBoard = new int[8][8];
-        for (int row = 0; row < 8; row++) {System.arraycopy(board.getGameBoard()[row], 0, this.gameBoard[row], 0, 8);}
+    public Board() {this.black = (1L << 28) | (1L << 35); this.white = (1L << 27) | (1L << 36);}
+
+    public int[][] getGameBoard() {
+        int[][] gameBoard = new int[8][8];
+        for (int i = 0; i < 8; ++i) {
+            for (int j = 0; j < 8; ++j) {
+                long bit = 1L << (i * 8 + j);
+                gameBoard[i][j] = (black & bit) != 0 ? 1 : (white & bit) != 0 ? 2 : 0;
+            }
+        }
+        return gameBoard;
     }
 
-    public Board() {this.gameBoard = new int[][] { { 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 2, 1, 0, 0, 0 }, { 0, 0, 0, 1, 2, 0, 0, 0 },{ 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0, 0, 0, 0 }, };}
+    public long getBits(int player) {return player == 1 ? black : white;}
 
-    public int[][] getGameBoard() {return gameBoard;}
+    public long getEmpty() {return ~(black | white);}
+
+    public boolean isEmpty(int x, int y) {return ((black | white) & (1L << (x * 8 + y))) == 0;}
 
     @Override
-    public boolean equals(Object obj) {return obj instanceof Board && Arrays.deepEquals(this.gameBoard, ((Board) obj).gameBoard);}
+    public boolean equals(Object obj) {return obj instanceof Board && this.black == ((Board) obj).black && this.white == ((Board) obj).white;}
 
     public boolean makeMove(int x, int y, int player) {
-        if (!(0 <= x && x < 8 && 0 <= y && y < 8) && gameBoard[x][y] == 0) {return false;}
-        gameBoard[x][y] = player;
-        int opponent = player == 1 ? 2 : 1;
-        for (int i = -1; i <= 1; ++i) {
-            for (int j = -1; j <= 1; j++) {
-                if (i == 0 && j == 0) {continue;}
-                int xpos = x + i;
-                int ypos = y + j;
-                if (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == opponent) {
-                    while (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == opponent) {
-                        xpos += i;
-                        ypos += j;
-                    }
-                    if (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == player) {
-                        while (!(xpos == x && ypos == y)) {
-                            gameBoard[xpos][ypos] = player;
-                            xpos -= i;
-                            ypos -= j;
-                        }
-                    }
-                }
-            }
-        }
+        if (!(0 <= x && x < 8 && 0 <= y && y < 8) || !isEmpty(x, y)) {return false;}
+        long move = 1L << (x * 8 + y);
+        long own = getBits(player);
+        long opp = getBits(player == 1 ? 2 : 1);
+        long flips = flips(move, own, opp);
+        own |= move | flips;
+        opp &= ~(move | flips);
+        if (player == 1) {black = own; white = opp;}
+        else {white = own; black = opp;}
         return true;
     }
 
     public boolean checkMove(int x, int y, int player) {
-        if (!(0 <= x && x < 8 && 0 <= y && y < 8) && gameBoard[x][y] == 0) {return false;}
-        int opponent = player == 1 ? 2 : 1;
-        for (int i = -1; i <= 1; ++i) {
-            for (int j = -1; j <= 1; j++) {
-                if (i == 0 && j == 0) {continue;}
-                int xpos = x + i;
-                int ypos = y + j;
-                if (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == opponent) {
-                    while (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == opponent) {
-                        xpos += i;
-                        ypos += j;
-                    }
-                    if (0 <= xpos && xpos < 8 && 0 <= ypos && ypos < 8 && gameBoard[xpos][ypos] == player) {return true;}
-                }
-            }
-        }
-        return false;
+        if (!(0 <= x && x < 8 && 0 <= y && y < 8) || !isEmpty(x, y)) {return false;}
+        return flips(1L << (x * 8 + y), getBits(player), getBits(player == 1 ? 2 : 1)) != 0;
     }
 
-    public int getScore(int player) {
-        int score = 0;
-        for (int i = 0; i < 8; ++i) {
-            for (int j = 0; j < 8; ++j) {
-                if (gameBoard[i][j] == player) {score++;}
-            }
-        }
-        return score;
-    }
+    public long getMoveMask(int player) {return moves(getBits(player), getBits(player == 1 ? 2 : 1));}
 
-    public int[] getScores() {
-        int score1 = 0;
-        int score2 = 0;
-        for (int i = 0; i < 8; ++i) {
-            for (int j = 0; j < 8; ++j) {
-                if (gameBoard[i][j] == 1) {score1++;}
-                if (gameBoard[i][j] == 2) {score2++;}
-            }
-        }
-        return new int[] { score1, score2 };
-    }
+    public int getScore(int player) {return Long.bitCount(getBits(player));}
 
-    public boolean isFull() {
-        for (int i = 0; i < 8; ++i) {
-            for (int j = 0; j < 8; ++j) {
-                if (gameBoard[i][j] == 0) {return false;}
-            }
-        }
-        return true;
-    }
+    public int[] getScores() {return new int[] { Long.bitCount(black), Long.bitCount(white) };}
+
+    public boolean isFull() {return (black | white) == -1L;}
 
     public List<int[]> getAllMoves(int player) {
         List<int[]> moves = new ArrayList<int[]>();
-        for (int i = 0; i < 8; ++i) {
-            for (int j = 0; j < 8; ++j) {
-                if (gameBoard[i][j] == 0) {
-                    if (checkMove(i, j, player)) {moves.add(new int[] { i, j });}
-                }
-            }
+        for (long mask = getMoveMask(player); mask != 0; mask &= mask - 1) {
+            int square = Long.numberOfTrailingZeros(mask);
+            moves.add(new int[] { square >>> 3, square & 7 });
         }
         return moves;
     }
 
     @Override
-    public String toString() {return Arrays.deepToString(gameBoard).replace("], ", "]\n") + "\n";}
+    public String toString() {return Arrays.deepToString(getGameBoard()).replace("], ", "]\n") + "\n";}
 
-    public boolean noMoves() {return getAllMoves(1).size() == 0 && getAllMoves(2).size() == 0;}
+    public boolean noMoves() {return moves(black, white) == 0 && moves(white, black) == 0;}
 
     public boolean gameOver() {return isFull() || noMoves();}
+
+    static long moves(long own, long opp) {
+        long moves = 0;
+        for (int d = 0; d < 4; d++) {
+            int s = SHIFTS[d];
+            long lm = LEFT_MASKS[d];
+            long rm = RIGHT_MASKS[d];
+            long l = (own << s) & lm & opp;
+            long r = (own >>> s) & rm & opp;
+            for (int k = 0; k < 5; k++) {l |= (l << s) & lm & opp; r |= (r >>> s) & rm & opp;}
+            moves |= ((l << s) & lm) | ((r >>> s) & rm);
+        }
+        return moves & ~(own | opp);
+    }
+
+    static long flips(long move, long own, long opp) {
+        long flips = 0;
+        for (int d = 0; d < 4; d++) {
+            int s = SHIFTS[d];
+            long lm = LEFT_MASKS[d];
+            long rm = RIGHT_MASKS[d];
+            long l = (move << s) & lm & opp;
+            long r = (move >>> s) & rm & opp;
+            for (int k = 0; k < 5; k++) {l |= (l << s) & lm & opp; r |= (r >>> s) & rm & opp;}
+            flips |= ((l << s) & lm & own) == 0 ? 0 : l;
+            flips |= ((r >>> s) & rm & own) == 0 ? 0 : r;
+        }
+        return flips;
+    }
 }
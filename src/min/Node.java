@@ -2,7 +2,7 @@ package min;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 public class Node {
@@ -99,8 +99,7 @@ public class Node {
     public double getWinLossRate() {return visits == 0 ? 0 : (double) this.wins / (double) this.visits;}
     
     public Node getRandomChild() {
-        Random rand = new Random();
-        int index = rand.nextInt(this.children.size());
+        int index = ThreadLocalRandom.current().nextInt(this.children.size());
         return this.children.get(index);
     }
     
@@ -108,7 +107,7 @@ public class Node {
     
     private String moveString() {return state == null ? "Undefined" : Arrays.toString(this.state.getMove());}
 
-    private static <T> T getRandomListElement(List<T> items) {return items.get(new Random().nextInt(items.size()));}
+    private static <T> T getRandomListElement(List<T> items) {return items.get(ThreadLocalRandom.current().nextInt(items.size()));}
 
     private int[] getMove() {return this.state.getMove();}
 